@@ -21,6 +21,9 @@ import java.awt.event.ActionEvent;
 import javax.swing.Action;
 import java.io.File;
 import java.awt.Component;
+import java.awt.AWTEvent;
+import java.awt.Toolkit;
+import java.awt.event.AWTEventListener;
 import javax.swing.JMenu;
 import javax.swing.SwingUtilities;
 
@@ -48,6 +51,7 @@ public class UtilPlugin extends EBPlugin {
    public static final String DATA_DIR = "jeditutil";
    public static final String DATA_FILE = "jeditutil.json";
    public static final String PROJECT_FILE = "projects.json";
+   public static final String FRECENCY_FILE = "frecency.json";
    public static final String PROJECT_NAME_PROPERTY = NAME+".projectName";
 
    private static UtilPlugin INSTANCE;
@@ -55,6 +59,22 @@ public class UtilPlugin extends EBPlugin {
    /** The configuration data */
    private ConfigurationData data;
 
+   /** Counts of the values chosen from selectors and where they're saved */
+   private FrecencyData frecencyData;
+   private String frecencyFile;
+
+   /** Background work waits until the user has been idle this long */
+   private static final long USER_IDLE_TIME = 2000;
+
+   /** When the user last typed or clicked */
+   private volatile long lastUserActivity;
+
+   private final AWTEventListener activityListener = new AWTEventListener() {
+      public void eventDispatched(AWTEvent event) {
+         lastUserActivity = System.currentTimeMillis();
+      }
+   };
+
    /** The project data manager */
    private ProjectManager projectManager;
 
@@ -90,9 +110,11 @@ public class UtilPlugin extends EBPlugin {
    */
    @Override
    public void stop() {
+      Toolkit.getDefaultToolkit().removeAWTEventListener(activityListener);
       projectManager.shutdown();
       UtilityPanel.shutdown();
       GlobalMenuSet.shutdown();
+      saveFrecency();
       INSTANCE = null;
       initialized = false;
       //TODO write the data file
@@ -115,10 +137,24 @@ public class UtilPlugin extends EBPlugin {
       if ( view == null ) view = jEdit.getActiveView();
       String settingsDir = jEdit.getSettingsDirectory() == null ? "." : jEdit.getSettingsDirectory();
       openConfiguration(settingsDir);
+      openFrecency(settingsDir);
       initialized = true;
       GlobalMenuSet.initialize(data.getGlobalMenus());
       Log.log(Log.DEBUG, this, "Opening jeditutil projects file: " + PROJECT_FILE);
       projectManager = new ProjectManager(settingsDir+File.separator+DATA_DIR+File.separator+PROJECT_FILE);
+      Toolkit.getDefaultToolkit().addAWTEventListener(activityListener,
+            AWTEvent.KEY_EVENT_MASK | AWTEvent.MOUSE_EVENT_MASK | AWTEvent.MOUSE_WHEEL_EVENT_MASK);
+      projectManager.setBusyCheck(new ProjectManager.BusyCheck() {
+         public boolean isBusy() {
+            return System.currentTimeMillis() - lastUserActivity < USER_IDLE_TIME || ProcessRunner.isBusy();
+         }
+      });
+      projectManager.setRefreshListener(new ProjectCache.RefreshListener() {
+         public void projectRefreshed(ProjectCache cache) {
+            Log.log(Log.DEBUG, UtilPlugin.this, "Refreshed project "+cache.getProject().getName()+" in "+cache.getLastRefreshDuration()+"ms: "+cache.getMetrics());
+         }
+      });
+      projectManager.startRefreshing();
       if ( view == null ) return;
       for ( EditPane pane : view.getEditPanes() ) addEditPanePanel(pane);
    }
@@ -138,6 +174,35 @@ public class UtilPlugin extends EBPlugin {
       if ( data == null ) data = new ConfigurationData();
    }
 
+   /**
+    * Open the selector frecency file and start counting choices
+    */
+   private void openFrecency(String settingsDir) {
+      frecencyFile = settingsDir+File.separator+DATA_DIR+File.separator+FRECENCY_FILE;
+      try {
+         frecencyData = BaseModel.readData(frecencyFile, FrecencyData.class);
+      }
+      catch (Exception e) {
+         Log.log(Log.ERROR, this, "Error opening frecency file", e);
+      }
+      if ( frecencyData == null ) frecencyData = new FrecencyData();
+      ValueSelector.setFrecencyData(frecencyData);
+   }
+
+   /**
+    * Save the selector frecency file
+    */
+   private void saveFrecency() {
+      if ( frecencyData == null ) return;
+      try {
+         new File(frecencyFile).getParentFile().mkdirs();
+         frecencyData.writeData(frecencyFile);
+      }
+      catch (Exception e) {
+         Log.log(Log.ERROR, this, "Error saving frecency file", e);
+      }
+   }
+
    /**
    * Reinitialize the plugin
    */
@@ -320,8 +385,7 @@ public class UtilPlugin extends EBPlugin {
     */
    public ProjectCache findProjectForBuffer(Buffer buffer) {
       String projectName = buffer.getStringProperty(PROJECT_NAME_PROPERTY);
-      File file = new File(buffer.getPath());
-      ProjectCache cache = projectName == null ? projectManager.findProjectForFile(file) : projectManager.findProject(projectName);
+      ProjectCache cache = projectName == null ? projectManager.findProjectForPath(buffer.getPath()) : projectManager.findProject(projectName);
       if ( cache != null ) buffer.setStringProperty(PROJECT_NAME_PROPERTY, cache.getProject().getName());
       return cache;
    }
@@ -414,6 +478,29 @@ public class UtilPlugin extends EBPlugin {
       runner.loadBuffer();
    }
 
+   /**
+   * Show the scan metrics of each project in a new buffer
+   */
+   public void showProjectStats(View view) {
+      StringBuilder stats = new StringBuilder();
+      for ( String name : new TreeSet<String>(projectManager.getProjectsByName().keySet()) ) {
+         ProjectCache cache = projectManager.findProject(name);
+         ScanMetrics metrics = cache.getMetrics();
+         ProjectSnapshot snapshot = cache.getSnapshot();
+         stats.append(name).append(" (").append(cache.getLocation()).append(")\n");
+         stats.append("   directories=").append(snapshot.getDirectories().size()).append(" files=").append(snapshot.getFiles().size()).append(" watching=").append(cache.isWatching()).append("\n");
+         stats.append("   refreshes=").append(metrics.getRefreshes()).append(" lastRefresh=").append(cache.getLastRefreshDuration()).append("ms\n");
+         stats.append("   directoriesChecked=").append(metrics.getDirectoriesChecked()).append(" directoriesListed=").append(metrics.getDirectoriesListed()).append(" directoriesSkipped=").append(metrics.getDirectoriesSkipped()).append("\n");
+         stats.append("   filesAdded=").append(metrics.getFilesAdded()).append(" filesRemoved=").append(metrics.getFilesRemoved()).append(" filesSkipped=").append(metrics.getFilesSkipped()).append("\n");
+         stats.append("   refreshTimes: ").append(metrics.getRefreshTimes()).append("\n");
+         stats.append("   getFilesTimes: ").append(metrics.getGetFilesTimes()).append("\n\n");
+      }
+      Buffer buf = jEdit.newFile(view);
+      buf.insert(0, stats.toString());
+      buf.setDirty(false);
+      view.getTextArea().goToBufferStart(false);
+   }
+
    /**
    * Dump all jEdit keyboard shortcuts to a buffer orderd by property
    * name.  This allows moving keyboard shortcut definitions around to
@@ -543,6 +630,7 @@ public class UtilPlugin extends EBPlugin {
       else if ( message instanceof EditPaneUpdate ) handleEditPaneUpdate((EditPaneUpdate)message);
       else if ( message instanceof ViewUpdate ) handleViewUpdate((ViewUpdate)message);
       else if ( message instanceof PluginUpdate ) handlePluginUpdate((PluginUpdate)message);
+      else if ( message instanceof DynamicMenuChanged ) handleDynamicMenuChanged((DynamicMenuChanged)message);
    }
 
    /**
@@ -554,6 +642,11 @@ public class UtilPlugin extends EBPlugin {
       }
       if ( message.getWhat() == BufferUpdate.CLOSED ) {
          removePluginPanels(message.getBuffer());
+         ValueSelector.invalidate(RecentSelector.class);
+      }
+      if ( message.getWhat() == BufferUpdate.CREATED || message.getWhat() == BufferUpdate.CLOSED ||
+            message.getWhat() == BufferUpdate.LOADED || message.getWhat() == BufferUpdate.SAVED ) {
+         ValueSelector.invalidate(BufferSelector.class);
       }
       if ( message.getWhat() == BufferUpdate.PROPERTIES_CHANGED ) {
       }
@@ -566,6 +659,7 @@ public class UtilPlugin extends EBPlugin {
       // Track buffer switches and show the appropriate dockable panel
       if ( message.getWhat() == EditPaneUpdate.BUFFER_CHANGED ) {
          updateEditPanePanel(message.getEditPane(), true);
+         ProcessRunner.bufferShown(message.getEditPane().getBuffer());
       }
       else if ( message.getWhat() == EditPaneUpdate.CREATED ) {
          addEditPanePanel(message.getEditPane());
@@ -591,6 +685,7 @@ public class UtilPlugin extends EBPlugin {
    */
    private void handlePluginUpdate(PluginUpdate message) {
       if ( message.isExiting() ) return;
+      ValueSelector.invalidate(ActionSelector.class);
       if ( message.getWhat().equals(PluginUpdate.LOADED) ) {
          UtilityPanel.addPluginTabs();
          for ( Map.Entry<EditPane,EditPanePanel> entry : editPanePanels.entrySet() ) 
@@ -603,6 +698,14 @@ public class UtilPlugin extends EBPlugin {
       }
    }
 
+   /**
+   * Handle changes to dynamic menus; the recent files menu changes with the buffer history
+   */
+   private void handleDynamicMenuChanged(DynamicMenuChanged message) {
+      if ( "recent-files".equals(message.getMenuName()) ) ValueSelector.invalidate(RecentSelector.class);
+      if ( "macros".equals(message.getMenuName()) ) ValueSelector.invalidate(ActionSelector.class);
+   }
+
    /**
    * Update the buffer status bar on buffer change if necessary
    */
@@ -30,8 +30,13 @@ public abstract class BaseModel {
 
    public void writeData(String file) throws IOException {
       JsonGenerator generator = jsonFactory.createJsonGenerator(new File(file), JsonEncoding.UTF8);
-      generator.setPrettyPrinter(new DefaultPrettyPrinter());
-      generator.writeObject(this);
+      try {
+         generator.setPrettyPrinter(new DefaultPrettyPrinter());
+         generator.writeObject(this);
+      }
+      finally {
+         generator.close();
+      }
       //TODO write temp file then rename in case of error?
    }
 
@@ -0,0 +1,125 @@
+package net.contrapt.jeditutil.model;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which directories of a project are excluded.  The inclusion and exclusion regexes of the
+ * <code>ProjectDef</code> are each compiled into a single alternation matched against the path of the
+ * directory relative to the project location.  A directory is excluded if it is hidden or matches an
+ * exclusion, and a directory inherits the verdict of its parent unless it matches an inclusion, so an
+ * excluded directory excludes its whole subtree.  Verdicts are cached so each directory is only
+ * evaluated once, no matter how many files it contains
+ */
+class ExclusionMatcher {
+
+   private final File location;
+
+   private final String locationPath;
+
+   private final Pattern inclusion;
+
+   private final Pattern exclusion;
+
+   private final Map<File, Boolean> excluded = new ConcurrentHashMap<File, Boolean>();
+
+   private final Map<File, Boolean> pruned = new ConcurrentHashMap<File, Boolean>();
+
+   ExclusionMatcher(File location, List<String> inclusions, List<String> exclusions) {
+      this.location = location;
+      this.locationPath = location.getPath();
+      this.inclusion = compileAlternation(inclusions);
+      this.exclusion = compileAlternation(exclusions);
+   }
+
+   /**
+    * Are the files in the given directory excluded from the project
+    */
+   boolean isExcluded(File dir) {
+      Boolean verdict = excluded.get(dir);
+      if (verdict != null) return verdict;
+      verdict = evaluate(dir);
+      excluded.put(dir, verdict);
+      return verdict;
+   }
+
+   /**
+    * Can the given directory be skipped entirely; that is, it is excluded and no inclusion could
+    * match it or anything below it
+    */
+   boolean isPruned(File dir) {
+      Boolean verdict = pruned.get(dir);
+      if (verdict != null) return verdict;
+      String relativePath = getRelativePath(dir);
+      verdict = isHidden(relativePath) || (isExcluded(dir) && !couldIncludeBelow(relativePath));
+      pruned.put(dir, verdict);
+      return verdict;
+   }
+
+   /**
+    * Forget the verdicts for a directory that has been removed
+    */
+   void forget(File dir) {
+      excluded.remove(dir);
+      pruned.remove(dir);
+   }
+
+   void clear() {
+      excluded.clear();
+      pruned.clear();
+   }
+
+   private boolean evaluate(File dir) {
+      String relativePath = getRelativePath(dir);
+      if (relativePath == null) return false;
+      if (isHidden(relativePath)) return true;
+      if (inclusion != null && inclusion.matcher(relativePath).matches()) return false;
+      if (exclusion != null && exclusion.matcher(relativePath).matches()) return true;
+      File parent = dir.getParentFile();
+      if (parent == null || dir.equals(location)) return false;
+      return isExcluded(parent);
+   }
+
+   /**
+    * Hidden directories at the top of the project are always excluded, inclusions don't apply
+    */
+   private boolean isHidden(String relativePath) {
+      if (relativePath == null) return false;
+      return relativePath.startsWith(".") || relativePath.startsWith(File.separator + ".");
+   }
+
+   /**
+    * Could an inclusion match a path below the given one; if the matcher runs out of input before it
+    * fails then a longer path might still match
+    */
+   private boolean couldIncludeBelow(String relativePath) {
+      if (inclusion == null || relativePath == null) return false;
+      Matcher m = inclusion.matcher(relativePath + File.separator);
+      return m.matches() || m.hitEnd();
+   }
+
+   /**
+    * Return the path of the directory relative to the project location, "" for the location itself;
+    * null if it isn't in the project at all
+    */
+   private String getRelativePath(File dir) {
+      String path = dir.getPath();
+      if (!path.startsWith(locationPath)) return null;
+      return path.substring(locationPath.length());
+   }
+
+   private static Pattern compileAlternation(List<String> regexes) {
+      if (regexes == null || regexes.isEmpty()) return null;
+      StringBuilder alternation = new StringBuilder();
+      for (String regex : regexes) {
+         if (alternation.length() > 0) alternation.append('|');
+         alternation.append("(?:").append(regex).append(')');
+      }
+      return Pattern.compile(alternation.toString());
+   }
+
+}
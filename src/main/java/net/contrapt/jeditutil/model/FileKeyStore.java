@@ -0,0 +1,876 @@
+package net.contrapt.jeditutil.model;
+
+import java.io.File;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact storage for the files of a project.  Rather than a <code>File</code> and a key string per file,
+ * directories are interned once with their relative path, file names are interned into a single char
+ * array and each file is just a pair of ints: its name and its directory.  The familiar
+ * <code>Map&lt;String, File&gt;</code> keyed by "name (relative directory)" is presented as an immutable,
+ * sorted view whose keys and files are only created when they are asked for.  The store can also keep a
+ * trigram index of its names and directories to find the files whose keys could contain some text
+ * without checking every key.
+ */
+class FileKeyStore {
+
+   private static final int EMPTY = 0;
+
+   private static final int DELETED = -1;
+
+   private final String locationPath;
+
+   /**
+    * The trigram index if the store is indexed
+    */
+   private final TrigramIndex index;
+
+   /**
+    * Interned directories by id; removed directories leave a null
+    */
+   private final List<Directory> directories = new ArrayList<Directory>();
+
+   private final Map<File, Integer> directoryIds = new HashMap<File, Integer>();
+
+   private final Map<String, Integer> relativePathIds = new HashMap<String, Integer>();
+
+   /**
+    * Interned names; each name is its length as a char followed by its chars, a name is identified by
+    * its offset.  Names are only appended, or copied to a new array without the unused ones, so views can
+    * keep using an old array
+    */
+   private char[] names = new char[4096];
+
+   private int namesLength = 0;
+
+   /**
+    * The chars of names that removed files had; the names may still be used by other files so this is as
+    * many chars as could be unused
+    */
+   private int removedNameChars = 0;
+
+   /**
+    * Open addressing table of name offset + 1
+    */
+   private int[] nameTable = new int[1024];
+
+   private int nameCount = 0;
+
+   /**
+    * The name and directory of each file record; a free record has directory -1
+    */
+   private int[] recordNames = new int[1024];
+
+   private int[] recordDirectories = new int[1024];
+
+   private int recordCount = 0;
+
+   private int[] freeRecords = new int[64];
+
+   private int freeCount = 0;
+
+   /**
+    * Open addressing table of record + 1 by name and directory
+    */
+   private int[] recordTable = new int[2048];
+
+   private int recordTableUsed = 0;
+
+   private int size = 0;
+
+   /**
+    * The last view created and whether anything has changed since
+    */
+   private FileKeyView view;
+
+   private boolean changed = true;
+
+   /**
+    * The records of the last view in key order and the records added since, so the next view only has to
+    * sort the added ones and merge them in
+    */
+   private int[] sortedRecords = new int[0];
+
+   private final BitSet addedRecords = new BitSet();
+
+   FileKeyStore(File location) {
+      this(location, false);
+   }
+
+   FileKeyStore(File location, boolean indexed) {
+      this.locationPath = location.getPath();
+      this.index = indexed ? new TrigramIndex() : null;
+   }
+
+   /**
+    * Add a file to the given directory
+    *
+    * @return false if it was already there
+    */
+   synchronized boolean add(File dir, String name) {
+      int directory = getDirectoryId(dir, true);
+      int nameOffset = internName(name);
+      if (findRecord(nameOffset, directory) >= 0) return false;
+      int record = allocateRecord();
+      recordNames[record] = nameOffset;
+      recordDirectories[record] = directory;
+      insertRecord(record);
+      addedRecords.set(record);
+      // Inserting can compact the names, which moves this one
+      if (index != null) index.addRecord(record, recordNames[record]);
+      directories.get(directory).add(record);
+      size++;
+      changed = true;
+      return true;
+   }
+
+   /**
+    * Add all the given names to the directory
+    *
+    * @return The number of files added
+    */
+   synchronized int addAll(File dir, Collection<String> names) {
+      int added = 0;
+      for (String name : names) {
+         if (add(dir, name)) added++;
+      }
+      return added;
+   }
+
+   /**
+    * Remove a file from the given directory
+    *
+    * @return false if it wasn't there
+    */
+   synchronized boolean remove(File dir, String name) {
+      Integer directory = directoryIds.get(dir);
+      if (directory == null) return false;
+      int nameOffset = findName(name, 0, name.length());
+      if (nameOffset < 0) return false;
+      int record = findRecord(nameOffset, directory);
+      if (record < 0) return false;
+      directories.get(directory).remove(record);
+      removeRecord(record);
+      return true;
+   }
+
+   /**
+    * Remove any files of the directory whose names aren't in the given set
+    *
+    * @return The number of files removed
+    */
+   synchronized int retainAll(File dir, Set<String> listedNames) {
+      Integer directory = directoryIds.get(dir);
+      if (directory == null) return 0;
+      Directory d = directories.get(directory);
+      int removed = 0;
+      for (int i = d.count - 1; i >= 0; i--) {
+         int record = d.records[i];
+         if (listedNames.contains(getName(recordNames[record]))) continue;
+         d.remove(record);
+         removeRecord(record);
+         removed++;
+      }
+      return removed;
+   }
+
+   /**
+    * Remove the directory and all of its files
+    *
+    * @return The number of files removed
+    */
+   synchronized int removeDirectory(File dir) {
+      Integer directory = directoryIds.remove(dir);
+      if (directory == null) return 0;
+      Directory d = directories.get(directory);
+      for (int i = 0; i < d.count; i++) removeRecord(d.records[i]);
+      directories.set(directory, null);
+      relativePathIds.remove(d.relativePath);
+      changed = true;
+      return d.count;
+   }
+
+   /**
+    * Return the names of the files in the given directory
+    */
+   synchronized List<String> getNames(File dir) {
+      List<String> result = new ArrayList<String>();
+      Integer directory = directoryIds.get(dir);
+      if (directory == null) return result;
+      Directory d = directories.get(directory);
+      for (int i = 0; i < d.count; i++) result.add(getName(recordNames[d.records[i]]));
+      return result;
+   }
+
+   /**
+    * Return the file for the given key, null if there is none
+    */
+   synchronized File get(String key) {
+      int record = findRecord(key);
+      if (record < 0) return null;
+      return new File(directories.get(recordDirectories[record]).file, getName(recordNames[record]));
+   }
+
+   synchronized int size() {
+      return size;
+   }
+
+   synchronized void clear() {
+      directories.clear();
+      directoryIds.clear();
+      relativePathIds.clear();
+      names = new char[4096];
+      namesLength = 0;
+      removedNameChars = 0;
+      nameTable = new int[1024];
+      nameCount = 0;
+      recordNames = new int[1024];
+      recordDirectories = new int[1024];
+      recordCount = 0;
+      freeCount = 0;
+      recordTable = new int[2048];
+      recordTableUsed = 0;
+      size = 0;
+      sortedRecords = new int[0];
+      addedRecords.clear();
+      if (index != null) index.clear();
+      changed = true;
+   }
+
+   /**
+    * Return an immutable, sorted map view of the current files; the view is only rebuilt when something
+    * has changed since the last one, and then only the files added since are sorted
+    */
+   synchronized Map<String, File> view() {
+      if (!changed && view != null) return view;
+      int[] sorted = mergeAdded();
+      int[] viewNames = new int[size];
+      Directory[] viewDirectories = new Directory[size];
+      for (int i = 0; i < size; i++) {
+         viewNames[i] = recordNames[sorted[i]];
+         viewDirectories[i] = directories.get(recordDirectories[sorted[i]]);
+      }
+      int[] positions = null;
+      if (index != null) {
+         positions = new int[recordCount];
+         for (int i = 0; i < size; i++) positions[sorted[i]] = i;
+      }
+      view = new FileKeyView(names, viewNames, viewDirectories, positions);
+      sortedRecords = sorted;
+      changed = false;
+      return view;
+   }
+
+   /**
+    * The current records in key order: those of the last view that are still there merged with the
+    * sorted records added since.  A removed record can be reused for an added file, so the added ones
+    * are left out of the last view's records
+    */
+   private int[] mergeAdded() {
+      int[] added = new int[addedRecords.cardinality()];
+      int a = 0;
+      for (int record = addedRecords.nextSetBit(0); record >= 0; record = addedRecords.nextSetBit(record + 1)) {
+         if (recordDirectories[record] >= 0) added[a++] = record;
+      }
+      added = Arrays.copyOf(added, a);
+      sortRecords(added);
+      int[] sorted = new int[size];
+      int i = 0, j = 0, k = 0;
+      while (i < sortedRecords.length || j < added.length) {
+         if (i < sortedRecords.length) {
+            int record = sortedRecords[i];
+            if (recordDirectories[record] < 0 || addedRecords.get(record)) {
+               i++;
+               continue;
+            }
+            if (j == added.length || compareRecords(record, added[j]) <= 0) {
+               sorted[k++] = record;
+               i++;
+               continue;
+            }
+         }
+         sorted[k++] = added[j++];
+      }
+      addedRecords.clear();
+      return sorted;
+   }
+
+   /**
+    * Find the files whose keys could contain all the given text, ignoring case, using the trigram index;
+    * every file whose key does is found but some that don't may be too.  A file key contains a trigram if
+    * its name or its directory does, so only the files whose name or directory contains the rarest trigram
+    * are checked, and each of those against the postings of the other trigrams.
+    *
+    * @param files The view the positions are wanted in; it has to be the current view
+    * @param texts The text the keys have to contain
+    * @return The positions of the files in the view in increasing order or null if the store isn't indexed,
+    * the view isn't current or the text has no trigrams
+    */
+   synchronized int[] findCandidates(Map<String, File> files, Collection<String> texts) {
+      if (index == null || files != view || changed) return null;
+      long[] trigrams = TrigramIndex.getTrigrams(texts);
+      if (trigrams.length == 0) return null;
+      // Every trigram has to be in the name or directory; more than fit in a mask just check fewer
+      if (trigrams.length > 32) trigrams = Arrays.copyOf(trigrams, 32);
+      int all = trigrams.length == 32 ? -1 : (1 << trigrams.length) - 1;
+      TrigramIndex.Posting[] namePostings = new TrigramIndex.Posting[trigrams.length];
+      int[] directoryMasks = new int[directories.size()];
+      int rarest = -1;
+      int rarestCost = Integer.MAX_VALUE;
+      for (int t = 0; t < trigrams.length; t++) {
+         namePostings[t] = index.getNames(trigrams[t]);
+         TrigramIndex.Posting directoryPosting = index.getDirectories(trigrams[t]);
+         int cost = namePostings[t] == null ? 0 : namePostings[t].size();
+         if (directoryPosting != null) {
+            for (int i = 0; i < directoryPosting.size(); i++) {
+               Directory d = directories.get(directoryPosting.get(i));
+               if (d == null) continue;
+               directoryMasks[directoryPosting.get(i)] |= 1 << t;
+               cost += d.count;
+            }
+         }
+         if (cost < rarestCost) {
+            rarest = t;
+            rarestCost = cost;
+         }
+      }
+      int[] candidates = new int[16];
+      int count = 0;
+      // Files named with the rarest trigram
+      TrigramIndex.Posting rarestNames = namePostings[rarest];
+      for (int i = 0; rarestNames != null && i < rarestNames.size(); i++) {
+         int nameMask = getNameMask(namePostings, rarestNames.get(i));
+         for (int record = index.firstRecord(rarestNames.get(i)); record >= 0; record = index.nextRecord(record)) {
+            if ((nameMask | directoryMasks[recordDirectories[record]]) != all) continue;
+            if (count == candidates.length) candidates = Arrays.copyOf(candidates, count * 2);
+            candidates[count++] = view.positions[record];
+         }
+      }
+      // Files in directories with the rarest trigram not already found by name
+      TrigramIndex.Posting rarestDirectories = index.getDirectories(trigrams[rarest]);
+      for (int i = 0; rarestDirectories != null && i < rarestDirectories.size(); i++) {
+         Directory d = directories.get(rarestDirectories.get(i));
+         if (d == null) continue;
+         int directoryMask = directoryMasks[rarestDirectories.get(i)];
+         for (int r = 0; r < d.count; r++) {
+            int nameMask = getNameMask(namePostings, recordNames[d.records[r]]);
+            if ((nameMask & (1 << rarest)) != 0 || (nameMask | directoryMask) != all) continue;
+            if (count == candidates.length) candidates = Arrays.copyOf(candidates, count * 2);
+            candidates[count++] = view.positions[d.records[r]];
+         }
+      }
+      candidates = Arrays.copyOf(candidates, count);
+      Arrays.sort(candidates);
+      return candidates;
+   }
+
+   /**
+    * Which of the trigrams with the given postings the name contains
+    */
+   private static int getNameMask(TrigramIndex.Posting[] namePostings, int nameOffset) {
+      int mask = 0;
+      for (int t = 0; t < namePostings.length; t++) {
+         if (namePostings[t] != null && namePostings[t].contains(nameOffset)) mask |= 1 << t;
+      }
+      return mask;
+   }
+
+   //
+   // Directories
+   //
+
+   private int getDirectoryId(File dir, boolean create) {
+      Integer id = directoryIds.get(dir);
+      if (id != null || !create) return id == null ? -1 : id;
+      Directory d = new Directory(dir, dir.getPath().replace(locationPath, ""));
+      id = directories.size();
+      directories.add(d);
+      directoryIds.put(dir, id);
+      relativePathIds.put(d.relativePath, id);
+      if (index != null) index.addDirectory(id, d.relativePath);
+      return id;
+   }
+
+   //
+   // Names
+   //
+
+   private String getName(int nameOffset) {
+      return new String(names, nameOffset + 1, names[nameOffset]);
+   }
+
+   private int internName(String name) {
+      int nameOffset = findName(name, 0, name.length());
+      if (nameOffset >= 0) return nameOffset;
+      int length = name.length();
+      if (namesLength + length + 1 > names.length) {
+         names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + length + 1));
+      }
+      nameOffset = namesLength;
+      names[namesLength++] = (char) length;
+      name.getChars(0, length, names, namesLength);
+      namesLength += length;
+      if ((nameCount + 1) * 2 > nameTable.length) rehashNames();
+      insertName(nameOffset, hash(name, 0, length));
+      nameCount++;
+      if (index != null) index.addName(nameOffset, name);
+      return nameOffset;
+   }
+
+   /**
+    * Find the offset of the interned name matching the given range of chars, -1 if there is none
+    */
+   private int findName(CharSequence chars, int start, int end) {
+      int mask = nameTable.length - 1;
+      int slot = hash(chars, start, end) & mask;
+      while (nameTable[slot] != EMPTY) {
+         int nameOffset = nameTable[slot] - 1;
+         if (nameEquals(nameOffset, chars, start, end)) return nameOffset;
+         slot = (slot + 1) & mask;
+      }
+      return -1;
+   }
+
+   private boolean nameEquals(int nameOffset, CharSequence chars, int start, int end) {
+      if (names[nameOffset] != end - start) return false;
+      for (int i = start, j = nameOffset + 1; i < end; i++, j++) {
+         if (names[j] != chars.charAt(i)) return false;
+      }
+      return true;
+   }
+
+   private void insertName(int nameOffset, int hash) {
+      int mask = nameTable.length - 1;
+      int slot = hash & mask;
+      while (nameTable[slot] != EMPTY) slot = (slot + 1) & mask;
+      nameTable[slot] = nameOffset + 1;
+   }
+
+   private void rehashNames() {
+      int[] old = nameTable;
+      nameTable = new int[old.length * 2];
+      for (int entry : old) {
+         if (entry == EMPTY) continue;
+         int nameOffset = entry - 1;
+         insertName(nameOffset, hash(new CharArraySequence(names), nameOffset + 1, nameOffset + 1 + names[nameOffset]));
+      }
+   }
+
+   /**
+    * Copy the names still used by a file to a new array if more than half of the chars are unused,
+    * moving the records and the index to the new offsets; the names keep their order
+    */
+   private void compactNames() {
+      int[] live = new int[recordCount - freeCount];
+      int n = 0;
+      for (int record = 0; record < recordCount; record++) {
+         if (recordDirectories[record] >= 0) live[n++] = recordNames[record];
+      }
+      Arrays.sort(live, 0, n);
+      int liveCount = 0;
+      int liveChars = 0;
+      for (int i = 0; i < n; i++) {
+         if (liveCount > 0 && live[liveCount - 1] == live[i]) continue;
+         live[liveCount++] = live[i];
+         liveChars += names[live[i]] + 1;
+      }
+      removedNameChars = namesLength - liveChars;
+      if (removedNameChars * 2 <= namesLength) return;
+      char[] compacted = new char[Math.max(4096, liveChars + liveChars / 2)];
+      int[] offsets = new int[liveCount];
+      int capacity = 1024;
+      while (liveCount * 2 >= capacity) capacity *= 2;
+      nameTable = new int[capacity];
+      int length = 0;
+      for (int i = 0; i < liveCount; i++) {
+         offsets[i] = length;
+         System.arraycopy(names, live[i], compacted, length, names[live[i]] + 1);
+         length += names[live[i]] + 1;
+      }
+      names = compacted;
+      namesLength = length;
+      nameCount = liveCount;
+      removedNameChars = 0;
+      CharArraySequence chars = new CharArraySequence(names);
+      for (int i = 0; i < liveCount; i++) {
+         insertName(offsets[i], hash(chars, offsets[i] + 1, offsets[i] + 1 + names[offsets[i]]));
+      }
+      for (int record = 0; record < recordCount; record++) {
+         if (recordDirectories[record] >= 0) recordNames[record] = offsets[Arrays.binarySearch(live, 0, liveCount, recordNames[record])];
+      }
+      if (index != null) index.moveNames(live, offsets, liveCount);
+      changed = true;
+   }
+
+   private static int hash(CharSequence chars, int start, int end) {
+      int h = 0;
+      for (int i = start; i < end; i++) h = 31 * h + chars.charAt(i);
+      return h ^ (h >>> 16);
+   }
+
+   //
+   // Records
+   //
+
+   private int allocateRecord() {
+      if (freeCount > 0) return freeRecords[--freeCount];
+      if (recordCount == recordNames.length) {
+         recordNames = Arrays.copyOf(recordNames, recordCount * 2);
+         recordDirectories = Arrays.copyOf(recordDirectories, recordCount * 2);
+      }
+      return recordCount++;
+   }
+
+   private void removeRecord(int record) {
+      deleteRecord(record);
+      removedNameChars += names[recordNames[record]] + 1;
+      if (index != null) index.removeRecord(record, recordNames[record]);
+      recordDirectories[record] = -1;
+      if (freeCount == freeRecords.length) freeRecords = Arrays.copyOf(freeRecords, freeCount * 2);
+      freeRecords[freeCount++] = record;
+      size--;
+      changed = true;
+   }
+
+   private static int hash(int nameOffset, int directory) {
+      int h = nameOffset * 31 + directory;
+      return h ^ (h >>> 16);
+   }
+
+   private int findRecord(int nameOffset, int directory) {
+      int mask = recordTable.length - 1;
+      int slot = hash(nameOffset, directory) & mask;
+      while (recordTable[slot] != EMPTY) {
+         int record = recordTable[slot] - 1;
+         if (record >= 0 && recordNames[record] == nameOffset && recordDirectories[record] == directory) return record;
+         slot = (slot + 1) & mask;
+      }
+      return -1;
+   }
+
+   /**
+    * Find the record for a key of the form "name (relative directory)"; the name could contain " (" so
+    * try each possible split
+    */
+   private int findRecord(String key) {
+      if (!key.endsWith(")")) return -1;
+      int split = key.indexOf(" (");
+      while (split >= 0) {
+         Integer directory = relativePathIds.get(key.substring(split + 2, key.length() - 1));
+         if (directory != null) {
+            int nameOffset = findName(key, 0, split);
+            if (nameOffset >= 0) {
+               int record = findRecord(nameOffset, directory);
+               if (record >= 0) return record;
+            }
+         }
+         split = key.indexOf(" (", split + 1);
+      }
+      return -1;
+   }
+
+   private void insertRecord(int record) {
+      if ((recordTableUsed + 1) * 2 > recordTable.length) rehashRecords();
+      int mask = recordTable.length - 1;
+      int slot = hash(recordNames[record], recordDirectories[record]) & mask;
+      while (recordTable[slot] != EMPTY && recordTable[slot] != DELETED) slot = (slot + 1) & mask;
+      if (recordTable[slot] == EMPTY) recordTableUsed++;
+      recordTable[slot] = record + 1;
+   }
+
+   private void deleteRecord(int record) {
+      int mask = recordTable.length - 1;
+      int slot = hash(recordNames[record], recordDirectories[record]) & mask;
+      while (recordTable[slot] != EMPTY) {
+         if (recordTable[slot] == record + 1) {
+            recordTable[slot] = DELETED;
+            return;
+         }
+         slot = (slot + 1) & mask;
+      }
+   }
+
+   /**
+    * Rebuild the record table, dropping deleted slots and growing it if it is mostly live records.  The
+    * names are compacted first if enough of them could be unused, since that moves the records' names
+    */
+   private void rehashRecords() {
+      if (removedNameChars * 2 > namesLength) compactNames();
+      int capacity = recordTable.length;
+      if ((size + 1) * 4 > capacity) capacity *= 2;
+      recordTable = new int[capacity];
+      recordTableUsed = 0;
+      for (int record = 0; record < recordCount; record++) {
+         if (recordDirectories[record] >= 0) insertRecord(record);
+      }
+   }
+
+   //
+   // Sorting
+   //
+
+   /**
+    * Sort records by key without creating the key strings; a merge sort on the record ids
+    */
+   private void sortRecords(int[] records) {
+      int[] buffer = new int[records.length];
+      for (int width = 1; width < records.length; width *= 2) {
+         for (int low = 0; low < records.length - width; low += width * 2) {
+            int mid = low + width;
+            int high = Math.min(low + width * 2, records.length);
+            int i = low, j = mid, k = low;
+            while (i < mid && j < high) {
+               buffer[k++] = compareRecords(records[i], records[j]) <= 0 ? records[i++] : records[j++];
+            }
+            while (i < mid) buffer[k++] = records[i++];
+            while (j < high) buffer[k++] = records[j++];
+            System.arraycopy(buffer, low, records, low, high - low);
+         }
+      }
+   }
+
+   private int compareRecords(int a, int b) {
+      return compareKeys(names, recordNames[a], directories.get(recordDirectories[a]).relativePath,
+            recordNames[b], directories.get(recordDirectories[b]).relativePath);
+   }
+
+   /**
+    * The length of the key "name (relative directory)"
+    */
+   private static int keyLength(char[] names, int nameOffset, String relativePath) {
+      return names[nameOffset] + relativePath.length() + 3;
+   }
+
+   /**
+    * The character at the given index of the key "name (relative directory)"
+    */
+   private static char keyCharAt(char[] names, int nameOffset, String relativePath, int index) {
+      int nameLength = names[nameOffset];
+      if (index < nameLength) return names[nameOffset + 1 + index];
+      index -= nameLength;
+      if (index == 0) return ' ';
+      if (index == 1) return '(';
+      index -= 2;
+      if (index < relativePath.length()) return relativePath.charAt(index);
+      return ')';
+   }
+
+   private static int compareKeys(char[] names, int nameA, String pathA, int nameB, String pathB) {
+      int lengthA = keyLength(names, nameA, pathA);
+      int lengthB = keyLength(names, nameB, pathB);
+      int length = Math.min(lengthA, lengthB);
+      for (int i = 0; i < length; i++) {
+         char a = keyCharAt(names, nameA, pathA, i);
+         char b = keyCharAt(names, nameB, pathB, i);
+         if (a != b) return a - b;
+      }
+      return lengthA - lengthB;
+   }
+
+   private static int compareKey(String key, char[] names, int nameOffset, String relativePath) {
+      int keyLength = keyLength(names, nameOffset, relativePath);
+      int length = Math.min(key.length(), keyLength);
+      for (int i = 0; i < length; i++) {
+         char a = key.charAt(i);
+         char b = keyCharAt(names, nameOffset, relativePath, i);
+         if (a != b) return a - b;
+      }
+      return key.length() - keyLength;
+   }
+
+   /**
+    * An interned directory and the records of its files
+    */
+   private static class Directory {
+
+      private final File file;
+
+      private final String relativePath;
+
+      private int[] records = new int[4];
+
+      private int count = 0;
+
+      Directory(File file, String relativePath) {
+         this.file = file;
+         this.relativePath = relativePath;
+      }
+
+      void add(int record) {
+         if (count == records.length) records = Arrays.copyOf(records, count * 2);
+         records[count++] = record;
+      }
+
+      void remove(int record) {
+         for (int i = 0; i < count; i++) {
+            if (records[i] != record) continue;
+            records[i] = records[--count];
+            return;
+         }
+      }
+   }
+
+   /**
+    * Lets the name hash be computed straight from the name array
+    */
+   private static class CharArraySequence implements CharSequence {
+
+      private final char[] chars;
+
+      CharArraySequence(char[] chars) {
+         this.chars = chars;
+      }
+
+      public int length() {
+         return chars.length;
+      }
+
+      public char charAt(int index) {
+         return chars[index];
+      }
+
+      public CharSequence subSequence(int start, int end) {
+         return new String(chars, start, end - start);
+      }
+   }
+
+   /**
+    * Immutable sorted map of key to file over a copy of the store's records
+    */
+   private static class FileKeyView extends AbstractMap<String, File> {
+
+      private final char[] names;
+
+      private final int[] viewNames;
+
+      private final Directory[] viewDirectories;
+
+      /**
+       * The position of each record in the view when the store is indexed
+       */
+      private final int[] positions;
+
+      FileKeyView(char[] names, int[] viewNames, Directory[] viewDirectories, int[] positions) {
+         this.names = names;
+         this.viewNames = viewNames;
+         this.viewDirectories = viewDirectories;
+         this.positions = positions;
+      }
+
+      @Override
+      public int size() {
+         return viewNames.length;
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+         return indexOf(key) >= 0;
+      }
+
+      @Override
+      public File get(Object key) {
+         int index = indexOf(key);
+         return index < 0 ? null : getFile(index);
+      }
+
+      @Override
+      public Set<String> keySet() {
+         return new AbstractSet<String>() {
+            public Iterator<String> iterator() {
+               return new ViewIterator<String>() {
+                  String get(int index) {
+                     return getKey(index);
+                  }
+               };
+            }
+
+            public int size() {
+               return viewNames.length;
+            }
+
+            public boolean contains(Object key) {
+               return containsKey(key);
+            }
+         };
+      }
+
+      @Override
+      public Set<Entry<String, File>> entrySet() {
+         return new AbstractSet<Entry<String, File>>() {
+            public Iterator<Entry<String, File>> iterator() {
+               return new ViewIterator<Entry<String, File>>() {
+                  Entry<String, File> get(int index) {
+                     return new SimpleImmutableEntry<String, File>(getKey(index), getFile(index));
+                  }
+               };
+            }
+
+            public int size() {
+               return viewNames.length;
+            }
+         };
+      }
+
+      private String getKey(int index) {
+         int nameOffset = viewNames[index];
+         String relativePath = viewDirectories[index].relativePath;
+         StringBuilder key = new StringBuilder(keyLength(names, nameOffset, relativePath));
+         key.append(names, nameOffset + 1, names[nameOffset]).append(" (").append(relativePath).append(')');
+         return key.toString();
+      }
+
+      private File getFile(int index) {
+         int nameOffset = viewNames[index];
+         return new File(viewDirectories[index].file, new String(names, nameOffset + 1, names[nameOffset]));
+      }
+
+      /**
+       * Binary search for the given key
+       */
+      private int indexOf(Object key) {
+         if (!(key instanceof String)) return -1;
+         String k = (String) key;
+         int low = 0, high = viewNames.length - 1;
+         while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compareKey(k, names, viewNames[mid], viewDirectories[mid].relativePath);
+            if (c == 0) return mid;
+            if (c < 0) high = mid - 1;
+            else low = mid + 1;
+         }
+         return -1;
+      }
+
+      private abstract class ViewIterator<T> implements Iterator<T> {
+
+         private int next = 0;
+
+         public boolean hasNext() {
+            return next < viewNames.length;
+         }
+
+         public T next() {
+            if (next >= viewNames.length) throw new NoSuchElementException();
+            return get(next++);
+         }
+
+         public void remove() {
+            throw new UnsupportedOperationException("Project file views are read only");
+         }
+
+         abstract T get(int index);
+      }
+   }
+
+}
@@ -0,0 +1,87 @@
+package net.contrapt.jeditutil.model;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values recently chosen from each selector, scored by frecency; only the best few values of
+ * each selector are kept
+ */
+public class FrecencyData extends BaseModel {
+
+   static final int MAX_ENTRIES = 100;
+
+   /**
+    * Entries by selector name
+    */
+   @JsonProperty
+   private Map<String, List<FrecencyEntry>> selectors = new HashMap<String, List<FrecencyEntry>>();
+
+   /**
+    * How many uses have been recorded for each selector this session
+    */
+   private final Map<String, Integer> versions = new HashMap<String, Integer>();
+
+   /**
+    * Count a choice of the given value from the given selector; if that makes too many values for the
+    * selector, the one with the lowest score is dropped
+    */
+   public synchronized void recordUse(String selector, String key, long now) {
+      List<FrecencyEntry> entries = selectors.get(selector);
+      if ( entries == null ) {
+         entries = new ArrayList<FrecencyEntry>();
+         selectors.put(selector, entries);
+      }
+      FrecencyEntry used = null;
+      for ( FrecencyEntry entry : entries ) {
+         if ( entry.getKey().equals(key) ) used = entry;
+      }
+      if ( used == null ) {
+         used = new FrecencyEntry(key);
+         entries.add(used);
+      }
+      used.use(now);
+      if ( entries.size() > MAX_ENTRIES ) {
+         FrecencyEntry lowest = used;
+         for ( FrecencyEntry entry : entries ) {
+            if ( entry != used && (lowest == used || entry.getScore(now) < lowest.getScore(now)) ) lowest = entry;
+         }
+         entries.remove(lowest);
+      }
+      Integer version = versions.get(selector);
+      versions.put(selector, version == null ? 1 : version+1);
+   }
+
+   /**
+    * Whether any values were chosen from the given selector
+    */
+   public synchronized boolean hasEntries(String selector) {
+      List<FrecencyEntry> entries = selectors.get(selector);
+      return entries != null && !entries.isEmpty();
+   }
+
+   /**
+    * The scores of the values chosen from the given selector, decayed to the given time
+    */
+   public synchronized Map<String, Double> getScores(String selector, long now) {
+      Map<String, Double> scores = new HashMap<String, Double>();
+      List<FrecencyEntry> entries = selectors.get(selector);
+      if ( entries == null ) return scores;
+      for ( FrecencyEntry entry : entries ) scores.put(entry.getKey(), entry.getScore(now));
+      return scores;
+   }
+
+   /**
+    * Changes each time a use is recorded for the given selector so callers can tell whether scores they
+    * worked out for it are out of date; uses recorded for other selectors don't change it
+    */
+   public synchronized int getVersion(String selector) {
+      Integer version = versions.get(selector);
+      return version == null ? 0 : version;
+   }
+
+}
@@ -0,0 +1,55 @@
+package net.contrapt.jeditutil.model;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * How often and how recently a value was chosen; the score is halved for every half life since the
+ * value was last chosen
+ */
+public class FrecencyEntry extends BaseModel {
+
+   /**
+    * A week in milliseconds
+    */
+   static final long HALF_LIFE = 7L * 24 * 60 * 60 * 1000;
+
+   @JsonProperty
+   private String key;
+
+   @JsonProperty
+   private double score;
+
+   @JsonProperty
+   private long lastUsed;
+
+   protected FrecencyEntry() {}
+
+   FrecencyEntry(String key) {
+      this.key = key;
+   }
+
+   public String getKey() {
+      return key;
+   }
+
+   public long getLastUsed() {
+      return lastUsed;
+   }
+
+   /**
+    * The score decayed to the given time
+    */
+   public double getScore(long now) {
+      if ( now <= lastUsed ) return score;
+      return score * Math.pow(0.5, (double) (now - lastUsed) / HALF_LIFE);
+   }
+
+   /**
+    * Count a use of the value at the given time
+    */
+   void use(long now) {
+      score = getScore(now) + 1;
+      lastUsed = Math.max(lastUsed, now);
+   }
+
+}
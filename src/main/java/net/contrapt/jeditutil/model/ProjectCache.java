@@ -1,72 +1,404 @@
 package net.contrapt.jeditutil.model;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Caches live data about project
+ * Caches live data about project; the cache is brought up to date by a single refresher thread which
+ * publishes an immutable snapshot after each change, so readers never block or see a partial update
  */
 public class ProjectCache {
 
    private ProjectDef project;
 
    /**
-    * When did we last cache files
+    * The modification time of each directory when we last listed it
     */
-   private long lastCached = 0;
+   private Map<File, Long> directoryModified;
 
    private File location;
 
-   private Map<String, File> files;
-
-   private Map<File, Set<String>> directoryFileKeys;
+   /**
+    * The files of each directory, stored compactly and viewed as a map of file key to file
+    */
+   private FileKeyStore files;
 
    private Set<File> directories;
 
-   private List<Pattern> exclusions;
+   private ExclusionMatcher exclusions;
+
+   /**
+    * Locations of nested projects; they are cached by their own project
+    */
+   private Set<File> childLocations;
+
+   /**
+    * The subdirectories that have been passed over rather than walked
+    */
+   private final Set<File> skippedDirectories = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+   /**
+    * What the cache has done to stay up to date
+    */
+   private final ScanMetrics metrics = new ScanMetrics();
 
-   private List<Pattern> inclusions;
+   private volatile RefreshListener refreshListener;
+
+   /**
+    * Keeps the cache up to date in the background when the project is being watched
+    */
+   private volatile ProjectWatcher watcher;
+
+   /**
+    * Starting and stopping the watcher don't wait for a refresh to finish
+    */
+   private final Object watchLock = new Object();
+
+   /**
+    * Where the cache is saved between sessions
+    */
+   private File indexFile;
+
+   /**
+    * The latest published state of the cache
+    */
+   private final AtomicReference<ProjectSnapshot> snapshot;
+
+   /**
+    * The single thread that refreshes the cache and publishes snapshots; it goes away when idle
+    */
+   private final ThreadPoolExecutor refresher;
+
+   /**
+    * The refresh waiting to run, if any; callers asking for a refresh share it
+    */
+   private Refresh pendingRefresh;
+
+   private final Object refreshLock = new Object();
+
+   private final AtomicBoolean publishPending = new AtomicBoolean();
+
+   /**
+    * Listeners for the progress of the current scan
+    */
+   private final List<ScanListener> scanListeners = new CopyOnWriteArrayList<ScanListener>();
+
+   /**
+    * How long the last refresh took and when it finished
+    */
+   private volatile long lastRefreshDuration;
+
+   private volatile long lastRefreshed;
 
    public ProjectCache(ProjectDef project) {
       this.project = project;
       this.location = new File(project.getLocation());
-      files = new TreeMap<String, File>();
-      directories = new HashSet<File>();
+      files = new FileKeyStore(location, project.isIndexed());
+      directories = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
       directories.add(location);
-      directoryFileKeys = new HashMap<File, Set<String>>();
+      directoryModified = new ConcurrentHashMap<File, Long>();
+      exclusions = new ExclusionMatcher(location, project.getInclusions(), project.getExclusions());
+      childLocations = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+      snapshot = new AtomicReference<ProjectSnapshot>(new ProjectSnapshot(directories, files.view()));
+      refresher = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ProjectRefresher-" + ProjectCache.this.project.getName());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+         }
+      });
+      refresher.allowCoreThreadTimeOut(true);
    }
 
    public ProjectDef getProject() {
       return project;
    }
 
-   public void clear() {
+   public synchronized void clear() {
       directories.clear();
       directories.add(location);
       files.clear();
-      lastCached = 0;
-      directoryFileKeys.clear();
+      directoryModified.clear();
+      exclusions.clear();
+      skippedDirectories.clear();
+      metrics.reset();
+      publish();
    }
 
-   public Set<File> getDirectories() {
-      long maxModified = 0;
-      for (File d : directories) {
-         cacheDirectory(d);
-         maxModified = Math.max(maxModified, d.lastModified());
+   /**
+    * Add the location of a project nested in this one; it won't be walked as part of this project
+    */
+   public void addChildLocation(File childLocation) {
+      childLocations.add(childLocation);
+   }
+
+   Set<File> getChildLocations() {
+      return childLocations;
+   }
+
+   /**
+    * The number of directories that were not descended into because they were excluded or belong to a
+    * nested project
+    */
+   public long getSkippedDirectories() {
+      return metrics.getDirectoriesSkipped();
+   }
+
+   /**
+    * The number of files that were passed over because their directory is excluded
+    */
+   public long getSkippedFiles() {
+      return metrics.getFilesSkipped();
+   }
+
+   /**
+    * Start watching the project tree for changes; after the initial scan, files are kept up to date
+    * by file system events instead of checking the modification time of every directory
+    */
+   public void startWatching() {
+      synchronized (watchLock) {
+         if (watcher != null) return;
+         ProjectWatcher newWatcher = new ProjectWatcher(this);
+         try {
+            newWatcher.start();
+         }
+         catch (IOException e) {
+            throw new RuntimeException("Error watching project " + project.getName(), e);
+         }
+         watcher = newWatcher;
       }
-      lastCached = maxModified;
-      return directories;
    }
 
+   /**
+    * Stop refreshing the cache for good: refreshes that haven't started are cancelled and a running one
+    * is interrupted, though a scan already under way may still take a while to finish
+    */
+   public void stopRefreshing() {
+      synchronized (refreshLock) {
+         for (Runnable waiting : refresher.shutdownNow()) {
+            if (waiting instanceof Future) ((Future<?>) waiting).cancel(false);
+         }
+      }
+   }
+
+   /**
+    * Wait for the refresher to stop after <code>stopRefreshing()</code>
+    *
+    * @return Whether it stopped in time; until it does the cache is still locked by its last refresh
+    */
+   public boolean awaitStopped(long millis) {
+      try {
+         return refresher.awaitTermination(millis, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+   }
+
+   /**
+    * Stop watching the project tree; the cache goes back to checking directory modification times
+    */
+   public void stopWatching() {
+      synchronized (watchLock) {
+         if (watcher == null) return;
+         watcher.stop();
+         watcher = null;
+      }
+   }
+
+   public boolean isWatching() {
+      return watcher != null;
+   }
+
+   public Set<File> getDirectories() {
+      return getDirectories(null);
+   }
+
+   /**
+    * Return the project directories, waiting for the cache to be brought up to date first
+    */
+   public Set<File> getDirectories(ScanListener listener) {
+      return awaitRefresh(listener).getDirectories();
+   }
+
+   /**
+    * Return a read only view of the cached files; when the project is watched the cache is not
+    * checked first
+    */
    public Map<String, File> getFiles() {
-      getDirectories();
-      return files;
+      return getFiles(null);
+   }
+
+   /**
+    * Return the cached files, reporting the progress of any initial scan to the given listener
+    */
+   public Map<String, File> getFiles(ScanListener listener) {
+      return awaitRefresh(listener).getFiles();
+   }
+
+   /**
+    * Find the files that could contain all the given text in their keys, ignoring case, using the
+    * project's trigram index
+    *
+    * @param files Files returned by <code>getFiles()</code>
+    * @param texts The text the file keys have to contain
+    * @return The positions in key order of at least all the files whose keys contain the text, or null
+    * if the project isn't indexed, the files have changed since or the text is too short to look up
+    */
+   public int[] findCandidates(Map<String, File> files, Collection<String> texts) {
+      return this.files.findCandidates(files, texts);
+   }
+
+   /**
+    * Return the latest snapshot of the cache without waiting for it to be refreshed
+    */
+   public ProjectSnapshot getSnapshot() {
+      return snapshot.get();
+   }
+
+   /**
+    * Ask the refresher to bring the cache up to date; if a refresh is already waiting to run the
+    * caller shares it
+    *
+    * @return The refresh, which is done when its snapshot has been published
+    */
+   public Future<?> refresh() {
+      return refresh(false);
+   }
+
+   /**
+    * Ask the refresher to bring the cache up to date, scanning at low priority if nobody is waiting for
+    * it; a background refresh that hasn't started yet is run in the foreground if someone asks for one
+    */
+   public Future<?> refresh(boolean background) {
+      synchronized (refreshLock) {
+         if (pendingRefresh != null && !pendingRefresh.isStarted()) {
+            if (!background) pendingRefresh.runInForeground();
+            return pendingRefresh;
+         }
+         pendingRefresh = new Refresh(background);
+         refresher.execute(pendingRefresh);
+         return pendingRefresh;
+      }
+   }
+
+   /**
+    * Refresh the cache and wait for the new snapshot unless the watcher is keeping it up to date
+    */
+   private ProjectSnapshot awaitRefresh(ScanListener listener) {
+      if (isWatchReady()) return snapshot.get();
+      long start = System.nanoTime();
+      if (listener != null) scanListeners.add(listener);
+      try {
+         refresh().get();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException e) {
+         throw new RuntimeException("Error refreshing project " + project.getName(), e.getCause());
+      }
+      finally {
+         if (listener != null) scanListeners.remove(listener);
+         metrics.filesReturned(System.nanoTime() - start);
+      }
+      return snapshot.get();
+   }
+
+   /**
+    * Bring the cache up to date; the first scan of the project is loaded from the saved index if there
+    * is one and published before it is validated, otherwise it is done in parallel and reports its
+    * progress to the scan listeners
+    */
+   private synchronized void update(boolean background) {
+      long start = System.nanoTime();
+      if (!isCold()) validateDirectories();
+      else if (!loadIndex()) scanAll(progress, background);
+      else {
+         // Readers get the saved files straight away rather than after every directory is checked
+         publish();
+         validateDirectories();
+      }
+      long duration = System.nanoTime() - start;
+      lastRefreshed = System.currentTimeMillis();
+      lastRefreshDuration = TimeUnit.NANOSECONDS.toMillis(duration);
+      metrics.refreshed(duration);
+      publish();
+      RefreshListener listener = refreshListener;
+      if (listener != null) listener.projectRefreshed(this);
+   }
+
+   /**
+    * Return the counters and timings of this cache
+    */
+   public ScanMetrics getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * Set a listener to be told after each refresh
+    */
+   public void setRefreshListener(RefreshListener refreshListener) {
+      this.refreshListener = refreshListener;
+   }
+
+   /**
+    * How long the last refresh took in milliseconds
+    */
+   public long getLastRefreshDuration() {
+      return lastRefreshDuration;
    }
 
+   /**
+    * When the last refresh finished, 0 if the cache has never been refreshed
+    */
+   public long getLastRefreshed() {
+      return lastRefreshed;
+   }
+
+   /**
+    * Publish a snapshot of the current state if it is different from the last one; readers can tell
+    * nothing changed because they get the same snapshot
+    */
+   private synchronized void publish() {
+      ProjectSnapshot current = snapshot.get();
+      Map<String, File> view = files.view();
+      if (current.getFiles() == view && current.getDirectories().equals(directories)) return;
+      snapshot.set(new ProjectSnapshot(directories, view));
+   }
+
+   /**
+    * Publish a snapshot from the refresher once the changes that are waiting have been applied
+    */
+   private void publishLater() {
+      if (!publishPending.compareAndSet(false, true)) return;
+      refresher.execute(new Runnable() {
+         public void run() {
+            publishPending.set(false);
+            publish();
+         }
+      });
+   }
+
+   /**
+    * Passes scan progress on to whoever is waiting for the scan
+    */
+   private final ScanListener progress = new ScanListener() {
+      public void scanProgress(int directories, int files) {
+         for (ScanListener listener : scanListeners) listener.scanProgress(directories, files);
+      }
+   };
+
    public boolean isOutOfDate() {
+      if (isWatchReady()) return false;
       for (File dir : directories) {
-         if (dir.lastModified() > lastCached) return true;
+         if (isModified(dir)) return true;
       }
       return false;
    }
@@ -75,82 +407,315 @@ public class ProjectCache {
       return location;
    }
 
-   private boolean isExcluded(File dir) {
-      if ( exclusions == null ) exclusions = compileRegex(project.getExclusions());
-      if ( inclusions == null ) inclusions = compileRegex(project.getInclusions());
-      String relativePath = dir.getPath().replace(location.getPath(), "");
-      if ( relativePath.startsWith(".") || relativePath.startsWith(File.separator+".")) return true;
-      for (Pattern i : inclusions) {
-         if ( i.matcher(relativePath).matches() ) return false;
+   /**
+    * Nothing has been cached yet
+    */
+   private boolean isCold() {
+      return directoryModified.isEmpty();
+   }
+
+   /**
+    * Has the given directory changed since we last listed it
+    */
+   private boolean isModified(File dir) {
+      metrics.directoryChecked();
+      Long modified = directoryModified.get(dir);
+      return modified == null || modified != dir.lastModified();
+   }
+
+   /**
+    * Scan the whole project tree in parallel
+    */
+   private void scanAll(ScanListener listener, boolean background) {
+      ProjectScanner.scan(this, location, listener, background);
+   }
+
+   /**
+    * Check each known directory and re-list the ones that have changed since they were cached
+    */
+   private void validateDirectories() {
+      ProjectWatcher w = watcher;
+      for (File d : directories) {
+         // The refresher is being stopped; the directories not checked yet will be next time
+         if (Thread.currentThread().isInterrupted()) return;
+         if (!d.exists()) {
+            removeDirectory(d);
+            continue;
+         }
+         if (w != null) w.register(d);
+         cacheDirectory(d);
+      }
+   }
+
+   /**
+    * Set the file used to save the cache between sessions
+    */
+   public void setIndexFile(File indexFile) {
+      this.indexFile = indexFile;
+   }
+
+   /**
+    * Save the cached directories and files to the index file if there is anything to save
+    */
+   public synchronized void saveIndex() throws IOException {
+      if (indexFile == null || isCold()) return;
+      ProjectIndex.write(indexFile, this);
+   }
+
+   /**
+    * Restore the cache from the index file if it exists; the directories are validated against their
+    * modification times afterwards.  An index that can't be read is deleted
+    *
+    * @return Whether the index was loaded
+    */
+   private boolean loadIndex() {
+      if (indexFile == null || !indexFile.exists()) return false;
+      try {
+         return ProjectIndex.read(indexFile, this);
       }
-      for (Pattern e : exclusions) {
-         if ( e.matcher(relativePath).matches() ) return true;
+      catch (IOException e) {
+         // The index is only a cache; get rid of it and scan instead
+         clear();
+         indexFile.delete();
+         return false;
       }
-      return false;
    }
 
-   private List<Pattern> compileRegex(List<String> regexes) {
-      List<Pattern> result = new ArrayList<Pattern>();
-      for ( String regex : regexes ) {
-         result.add(Pattern.compile(regex));
+   private boolean isWatchReady() {
+      ProjectWatcher w = watcher;
+      return w != null && w.isReady();
+   }
+
+   /**
+    * Re-list every known directory regardless of modification time; used when the watcher
+    * may have missed events
+    */
+   synchronized void rescan() {
+      if (isCold()) scanAll(null, true);
+      else {
+         directoryModified.clear();
+         validateDirectories();
+      }
+      publishLater();
+   }
+
+   /**
+    * A file or directory was created in one of the project directories
+    */
+   synchronized void fileCreated(File file) {
+      File dir = file.getParentFile();
+      if (!directories.contains(dir)) return;
+      cacheFile(dir, file, true);
+      publishLater();
+   }
+
+   /**
+    * A file or directory was deleted (or renamed away) from one of the project directories
+    */
+   synchronized void fileDeleted(File file) {
+      if (directories.contains(file)) removeDirectory(file);
+      else if (files.remove(file.getParentFile(), file.getName())) metrics.filesRemoved(1);
+      publishLater();
+   }
+
+   /**
+    * Remove the given directory, its subdirectories and all of their files from the cache
+    */
+   private void removeDirectory(File dir) {
+      String prefix = dir.getPath() + File.separator;
+      for (File d : new ArrayList<File>(directories)) {
+         if (!d.equals(dir) && !d.getPath().startsWith(prefix)) continue;
+         if (d.equals(location)) continue;
+         directories.remove(d);
+         directoryModified.remove(d);
+         exclusions.forget(d);
+         metrics.filesRemoved(files.removeDirectory(d));
+      }
+   }
+
+   /**
+    * Add a directory found by the parallel scanner
+    */
+   void addScannedDirectory(File dir, long modified) {
+      directories.add(dir);
+      directoryModified.put(dir, modified);
+      if (watcher != null) watcher.register(dir);
+   }
+
+   /**
+    * Add the files of a directory found by the parallel scanner
+    */
+   void addScannedFiles(File dir, Collection<String> names) {
+      metrics.filesAdded(files.addAll(dir, names));
+      for (ScanListener listener : scanListeners) {
+         if (listener instanceof FileScanListener) ((FileScanListener) listener).filesScanned(dir, names);
       }
-      return result;
+   }
+
+   /**
+    * Are the files in the given directory excluded
+    */
+   boolean isExcluded(File dir) {
+      return exclusions.isExcluded(dir);
+   }
+
+   /**
+    * Should the given subdirectory be walked; not if it is pruned by the exclusions or is
+    * the location of a nested project
+    */
+   boolean isWalked(File dir) {
+      if (isChildDir(dir) || exclusions.isPruned(dir)) {
+         // The same directories are passed over each time their parent is listed; count them once
+         if (skippedDirectories.add(dir)) metrics.directorySkipped();
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Count files that were passed over because they were excluded
+    */
+   void fileSkipped() {
+      metrics.fileSkipped();
    }
 
    private boolean isChildDir(File dir) {
-      return false;
+      return childLocations.contains(dir);
    }
 
    private void cacheDirectory(File dir) {
-      if (isChildDir(dir)) return;
-      if (!directories.contains(dir)) directories.add(dir);
-      if (dir.lastModified() > lastCached) cacheFiles(dir);
+      cacheDirectory(dir, false);
    }
 
-   private void cacheFiles(File dir) {
+   /**
+    * Cache the given directory; if forced, list it and its subdirectories even if their modification
+    * time is older than the last scan (e.g. a directory tree was moved into the project)
+    */
+   private void cacheDirectory(File dir, boolean force) {
+      if (directories.add(dir) && watcher != null) watcher.register(dir);
+      if (force || isModified(dir)) cacheFiles(dir, force);
+   }
+
+   private void cacheFiles(File dir, boolean force) {
+      long modified = dir.lastModified();
       File[] fileList = dir.listFiles();
       if (fileList == null) return;
+      metrics.directoryListed();
+      directoryModified.put(dir, modified);
+      Set<String> names = new HashSet<String>();
       for (File f : fileList) {
-         cacheFile(dir, f);
+         names.add(f.getName());
+         cacheFile(dir, f, force);
       }
-      removeDeletedFiles(dir);
+      metrics.filesRemoved(files.retainAll(dir, names));
    }
 
-   private void cacheFile(File dir, File file) {
-      if (file.isDirectory()) cacheDirectory(file);
-      else if ( isExcluded(dir) ) return;
-      else {
-         String fileKey = createFileKey(file);
-         files.put(fileKey, file);
-         trackDirectoryContents(dir, fileKey);
+   private void cacheFile(File dir, File file, boolean force) {
+      if (file.isDirectory()) {
+         if (isWalked(file)) cacheDirectory(file, force);
       }
+      else if ( isExcluded(dir) ) fileSkipped();
+      else if (files.add(dir, file.getName())) metrics.filesAdded(1);
    }
 
-   private void trackDirectoryContents(File dir, String fileKey) {
-      Set<String> fileKeys = directoryFileKeys.get(dir);
-      if (fileKeys == null) fileKeys = new HashSet<String>();
-      fileKeys.add(fileKey);
-      directoryFileKeys.put(dir, fileKeys);
+   /**
+    * Return the modification time recorded for each cached directory
+    */
+   Map<File, Long> getDirectoryModified() {
+      return directoryModified;
    }
 
-   private void removeDeletedFiles(File dir) {
-      if (directoryFileKeys.get(dir) == null) return;
-      List<String> removedKeys = new ArrayList<String>();
-      for (String fileKey : directoryFileKeys.get(dir)) {
-         File file = files.get(fileKey);
-         if (file == null) continue;
-         if (!file.exists()) {
-            files.remove(fileKey);
-            removedKeys.add(fileKey);
-         }
-      }
-      for (String fileKey : removedKeys) {
-         directoryFileKeys.get(dir).remove(fileKey);
-      }
+   /**
+    * Return the cached file for the given key without refreshing the cache
+    */
+   File getCachedFile(String fileKey) {
+      return files.get(fileKey);
+   }
+
+   /**
+    * Return the names of the files cached for the given directory
+    */
+   List<String> getFileNames(File dir) {
+      return files.getNames(dir);
    }
 
    public String createFileKey(File file) {
       return file.getName() + " (" + file.getParent().replace(location.getPath(), "") + ")";
    }
 
+   /**
+    * A refresh that callers can share until it starts running
+    */
+   private class Refresh extends FutureTask<Void> {
+
+      private volatile boolean started = false;
+
+      private final AtomicBoolean background;
+
+      Refresh(boolean background) {
+         this(new AtomicBoolean(background));
+      }
+
+      private Refresh(final AtomicBoolean background) {
+         super(new Callable<Void>() {
+            public Void call() {
+               update(background.get());
+               return null;
+            }
+         });
+         this.background = background;
+      }
+
+      void runInForeground() {
+         background.set(false);
+      }
+
+      @Override
+      public void run() {
+         started = true;
+         super.run();
+      }
+
+      boolean isStarted() {
+         return started;
+      }
+   }
+
+   /**
+    * Is told when the cache has been refreshed
+    */
+   public interface RefreshListener {
+
+      public void projectRefreshed(ProjectCache cache);
+   }
+
+   /**
+    * Receives progress updates while a project is being scanned
+    */
+   public interface ScanListener {
+
+      /**
+       * Called periodically during a scan and once when it is finished
+       *
+       * @param directories The number of directories scanned so far
+       * @param files The number of files found so far
+       */
+      public void scanProgress(int directories, int files);
+   }
+
+   /**
+    * Also receives the files themselves as a scan finds them
+    */
+   public interface FileScanListener extends ScanListener {
+
+      /**
+       * Called from the scanning threads with the files found in a directory; they can be keyed as
+       * <code>getFiles()</code> keys them with <code>createFileKey</code>, which is best left until they're needed
+       *
+       * @param dir The directory scanned
+       * @param names The names of the files found in it, which won't change afterwards
+       */
+      public void filesScanned(File dir, Collection<String> names);
+   }
+
 }
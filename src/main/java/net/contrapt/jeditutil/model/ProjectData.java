@@ -13,6 +13,17 @@ public class ProjectData extends BaseModel {
    @JsonProperty
    List<ProjectDef> projects = new ArrayList<ProjectDef>();
 
+   /**
+    * Seconds between background refreshes of the projects; 0 to only refresh when a project is used
+    */
+   @JsonProperty
+   int refreshInterval = 60;
+
+   /**
+    * The longest the background refresh backs off to while nothing is changing
+    */
+   @JsonProperty
+   int maxRefreshInterval = 600;
 
    public void addProject(ProjectDef project) {
       projects.add(project);
@@ -21,4 +32,12 @@ public class ProjectData extends BaseModel {
    public List<ProjectDef> getProjects() {
       return projects;
    }
+
+   public int getRefreshInterval() {
+      return refreshInterval;
+   }
+
+   public int getMaxRefreshInterval() {
+      return maxRefreshInterval;
+   }
 }
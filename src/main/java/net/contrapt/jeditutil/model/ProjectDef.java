@@ -24,6 +24,12 @@ public class ProjectDef extends BaseModel {
    @JsonProperty
    private List<String> inclusions;
 
+   @JsonProperty
+   private boolean watched;
+
+   @JsonProperty
+   private boolean indexed;
+
    protected ProjectDef() {}
 
    public ProjectDef(String name, String location) {
@@ -39,6 +45,13 @@ public class ProjectDef extends BaseModel {
       return location;
    }
 
+   /**
+    * The name of the project this one is nested in, if any
+    */
+   public String getParent() {
+      return parent;
+   }
+
    public List<String> getExclusions() {
       return exclusions;
    }
@@ -46,4 +59,19 @@ public class ProjectDef extends BaseModel {
    public List<String> getInclusions() {
       return inclusions;
    }
+
+   /**
+    * Should the project tree be watched for changes rather than checked each time files are requested
+    */
+   public boolean isWatched() {
+      return watched;
+   }
+
+   /**
+    * Should the project files be indexed by trigram so big projects can be filtered without checking
+    * every file
+    */
+   public boolean isIndexed() {
+      return indexed;
+   }
 }
@@ -0,0 +1,161 @@
+package net.contrapt.jeditutil.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Saves and restores the contents of a <code>ProjectCache</code> so a project doesn't have to be
+ * scanned again each session.  The index is a binary file containing a table of length prefixed
+ * UTF-8 strings followed by a record for each directory: its path, its modification time when it
+ * was listed and the names of its files as indexes into the string table.  It is read into memory in
+ * one go rather than mapped, since a mapped file can't be replaced until the mapping is collected on
+ * some platforms
+ */
+class ProjectIndex {
+
+   private static final int MAGIC = 0x4A554958;
+
+   private static final int VERSION = 1;
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private ProjectIndex() {}
+
+   /**
+    * Write the given cache to the index file; the index is written to a temporary file first
+    * so a failure doesn't leave a partial index behind
+    */
+   static void write(File indexFile, ProjectCache cache) throws IOException {
+      Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+      List<String> strings = new ArrayList<String>();
+      List<File> directories = new ArrayList<File>(cache.getDirectoryModified().keySet());
+      int fingerprint = addString(getFingerprint(cache), stringIndexes, strings);
+      int[] directoryPaths = new int[directories.size()];
+      int[][] fileNames = new int[directories.size()][];
+      for (int i = 0; i < directories.size(); i++) {
+         File dir = directories.get(i);
+         directoryPaths[i] = addString(getRelativePath(cache.getLocation(), dir), stringIndexes, strings);
+         List<Integer> names = new ArrayList<Integer>();
+         for (String name : cache.getFileNames(dir)) names.add(addString(name, stringIndexes, strings));
+         fileNames[i] = new int[names.size()];
+         for (int j = 0; j < names.size(); j++) fileNames[i][j] = names.get(j);
+      }
+      File tempFile = new File(indexFile.getPath() + ".tmp");
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+      try {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt(strings.size());
+         for (String string : strings) {
+            byte[] bytes = string.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+         }
+         out.writeInt(fingerprint);
+         out.writeInt(directories.size());
+         for (int i = 0; i < directories.size(); i++) {
+            out.writeInt(directoryPaths[i]);
+            out.writeLong(cache.getDirectoryModified().get(directories.get(i)));
+            out.writeInt(fileNames[i].length);
+            for (int name : fileNames[i]) out.writeInt(name);
+         }
+      }
+      finally {
+         out.close();
+      }
+      if (indexFile.exists() && !indexFile.delete()) throw new IOException("Unable to replace " + indexFile);
+      if (!tempFile.renameTo(indexFile)) throw new IOException("Unable to rename " + tempFile + " to " + indexFile);
+   }
+
+   /**
+    * Read the index file into the given cache
+    *
+    * @return false if the index is for a different project definition
+    */
+   static boolean read(File indexFile, ProjectCache cache) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+      try {
+         FileChannel channel = file.getChannel();
+         if (channel.size() > Integer.MAX_VALUE) throw new IOException("Corrupt project index " + indexFile);
+         ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+         while (buffer.hasRemaining() && channel.read(buffer) >= 0) ;
+         buffer.flip();
+         if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return false;
+         String[] strings = new String[getCount(buffer, 4, indexFile)];
+         for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[getCount(buffer, 1, indexFile)];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, UTF8);
+         }
+         if (!strings[buffer.getInt()].equals(getFingerprint(cache))) return false;
+         int directoryCount = getCount(buffer, 16, indexFile);
+         for (int i = 0; i < directoryCount; i++) {
+            String path = strings[buffer.getInt()];
+            File dir = path.length() == 0 ? cache.getLocation() : new File(cache.getLocation(), path);
+            cache.addScannedDirectory(dir, buffer.getLong());
+            int fileCount = getCount(buffer, 4, indexFile);
+            List<String> names = new ArrayList<String>(fileCount);
+            for (int j = 0; j < fileCount; j++) names.add(strings[buffer.getInt()]);
+            cache.addScannedFiles(dir, names);
+         }
+         return true;
+      }
+      catch (BufferUnderflowException e) {
+         throw new IOException("Truncated project index " + indexFile, e);
+      }
+      catch (RuntimeException e) {
+         throw new IOException("Corrupt project index " + indexFile, e);
+      }
+      finally {
+         file.close();
+      }
+   }
+
+   /**
+    * Read a count or length, checking that the rest of the index could hold that many items of the
+    * given size before anything is allocated for them
+    */
+   private static int getCount(ByteBuffer buffer, int itemSize, File indexFile) throws IOException {
+      int count = buffer.getInt();
+      if (count < 0 || (long) count * itemSize > buffer.remaining()) throw new IOException("Corrupt project index " + indexFile);
+      return count;
+   }
+
+   private static int addString(String string, Map<String, Integer> stringIndexes, List<String> strings) {
+      Integer index = stringIndexes.get(string);
+      if (index != null) return index;
+      stringIndexes.put(string, strings.size());
+      strings.add(string);
+      return strings.size() - 1;
+   }
+
+   private static String getRelativePath(File location, File dir) {
+      if (dir.equals(location)) return "";
+      return dir.getPath().substring(location.getPath().length() + 1);
+   }
+
+   /**
+    * Anything in the project definition that affects what is cached, including nested projects; an index
+    * saved with a different definition is ignored
+    */
+   private static String getFingerprint(ProjectCache cache) {
+      ProjectDef project = cache.getProject();
+      Set<File> children = new TreeSet<File>(cache.getChildLocations());
+      return project.getLocation() + "\n" + project.getExclusions() + "\n" + project.getInclusions() + "\n" + children;
+   }
+
+}
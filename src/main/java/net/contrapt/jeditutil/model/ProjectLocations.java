@@ -0,0 +1,114 @@
+package net.contrapt.jeditutil.model;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Finds the project containing a path using a trie of project location path segments; segments are
+ * compared in place so a lookup doesn't create a string or file per level.  Recent lookups are
+ * remembered since the same few buffer paths are looked up over and over
+ */
+class ProjectLocations {
+
+   private static final int RECENT_SIZE = 128;
+
+   private final Node root = new Node("");
+
+   private final Map<String, ProjectCache> recent = new LinkedHashMap<String, ProjectCache>(RECENT_SIZE, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, ProjectCache> eldest) {
+         return size() > RECENT_SIZE;
+      }
+   };
+
+   /**
+    * Add the location of the given project
+    */
+   synchronized void add(ProjectCache cache) {
+      String path = cache.getLocation().getPath();
+      Node node = root;
+      int start = 0;
+      while (start < path.length() || start == 0) {
+         int end = segmentEnd(path, start);
+         Node child = node.find(path, start, end);
+         if (child == null) child = node.add(new Node(path.substring(start, end)));
+         node = child;
+         start = end + 1;
+      }
+      node.cache = cache;
+      recent.clear();
+   }
+
+   synchronized void clear() {
+      root.children = new Node[0];
+      recent.clear();
+   }
+
+   /**
+    * Return the project with the deepest location containing the directory of the given path, null if
+    * there is none
+    */
+   synchronized ProjectCache find(String path) {
+      ProjectCache found = recent.get(path);
+      if (found != null || recent.containsKey(path)) return found;
+      int last = path.lastIndexOf(File.separatorChar);
+      if (last >= 0) found = findDeepest(path, last);
+      recent.put(path, found);
+      return found;
+   }
+
+   /**
+    * Walk the segments of the path up to the given length
+    */
+   private ProjectCache findDeepest(String path, int length) {
+      ProjectCache found = null;
+      Node node = root;
+      int start = 0;
+      while (start < length || start == 0) {
+         int end = Math.min(segmentEnd(path, start), length);
+         node = node.find(path, start, end);
+         if (node == null) break;
+         if (node.cache != null) found = node.cache;
+         start = end + 1;
+      }
+      return found;
+   }
+
+   private static int segmentEnd(String path, int start) {
+      int end = path.indexOf(File.separatorChar, start);
+      return end < 0 ? path.length() : end;
+   }
+
+   /**
+    * One segment of a project location
+    */
+   private static class Node {
+
+      private final String segment;
+
+      private Node[] children = new Node[0];
+
+      private ProjectCache cache;
+
+      Node(String segment) {
+         this.segment = segment;
+      }
+
+      Node find(String path, int start, int end) {
+         int length = end - start;
+         for (Node child : children) {
+            if (child.segment.length() == length && path.regionMatches(start, child.segment, 0, length)) return child;
+         }
+         return null;
+      }
+
+      Node add(Node child) {
+         children = Arrays.copyOf(children, children.length + 1);
+         children[children.length - 1] = child;
+         return child;
+      }
+   }
+
+}
@@ -5,34 +5,211 @@ import net.contrapt.jeditutil.model.ProjectData;
 import net.contrapt.jeditutil.model.ProjectDef;
 
 import java.io.File;
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.*;
 
 /**
  * Manage project data
  */
 public class ProjectManager {
 
+   /**
+    * How long shutting down waits in all for the projects' refreshes to stop, in milliseconds
+    */
+   private static final long SHUTDOWN_WAIT = 2000;
 
    private ProjectData projects;
 
+   /**
+    * Project file indexes are saved in the same directory as the data file
+    */
+   private File indexDirectory;
+
    private Map<File, ProjectCache> projectsByLocation;
 
    private Map<String, ProjectCache> projectsByName;
 
+   private ProjectLocations projectLocations = new ProjectLocations();
+
+   /**
+    * Refreshes the projects in the background so they are warm when they are used
+    */
+   private ScheduledExecutorService refreshScheduler;
+
+   /**
+    * Tells the background refresh when to stay out of the way
+    */
+   private volatile BusyCheck busyCheck;
+
+   private volatile ProjectCache.RefreshListener refreshListener;
+
+   private int refreshInterval;
+
+   private int maxRefreshInterval;
+
+   /**
+    * Seconds until the next background refresh; grows while nothing is changing
+    */
+   private volatile int refreshDelay;
+
+   /**
+    * How long the last background refresh of all the projects took and when it finished
+    */
+   private volatile long lastRefreshDuration;
+
+   private volatile long lastRefreshed;
+
    public ProjectManager(String dataFile) {
+      indexDirectory = new File(dataFile).getAbsoluteFile().getParentFile();
       openProjects(dataFile);
       mapProjects();
    }
 
+   /**
+    * Stop refreshing the projects and save their indexes.  Refreshes still running are given a little
+    * while to stop; a project whose refresh is still running after that isn't saved, since saving would
+    * have to wait for it
+    */
    public void shutdown() {
+      stopRefreshing();
       // Write the data file
       projects = null;
       for ( ProjectCache cache : projectsByLocation.values() ) {
+         cache.stopWatching();
+         cache.stopRefreshing();
+      }
+      long deadline = System.currentTimeMillis() + SHUTDOWN_WAIT;
+      for ( ProjectCache cache : projectsByLocation.values() ) {
+         if ( !cache.awaitStopped(Math.max(0, deadline - System.currentTimeMillis())) ) continue;
+         saveIndex(cache);
          cache.clear();
       }
       projectsByLocation.clear();
       projectsByName.clear();
+      projectLocations.clear();
+   }
+
+   /**
+    * Start refreshing the projects in the background on a low priority thread at the configured interval;
+    * the interval doubles up to the configured maximum while nothing changes
+    */
+   public synchronized void startRefreshing() {
+      if ( refreshScheduler != null || projects.getRefreshInterval() <= 0 ) return;
+      refreshInterval = projects.getRefreshInterval();
+      maxRefreshInterval = Math.max(refreshInterval, projects.getMaxRefreshInterval());
+      refreshDelay = refreshInterval;
+      refreshScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ProjectRefreshScheduler");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+         }
+      });
+      scheduleRefresh();
+   }
+
+   public synchronized void stopRefreshing() {
+      if ( refreshScheduler == null ) return;
+      refreshScheduler.shutdownNow();
+      refreshScheduler = null;
+   }
+
+   /**
+    * Set a listener to be told whenever any of the projects is refreshed, including projects added later
+    */
+   public void setRefreshListener(ProjectCache.RefreshListener listener) {
+      refreshListener = listener;
+      for ( ProjectCache cache : projectsByName.values() ) cache.setRefreshListener(listener);
+   }
+
+   /**
+    * Set the check for whether the editor is too busy for a background refresh
+    */
+   public void setBusyCheck(BusyCheck busyCheck) {
+      this.busyCheck = busyCheck;
+   }
+
+   /**
+    * Seconds until the next background refresh
+    */
+   public int getRefreshDelay() {
+      return refreshDelay;
+   }
+
+   /**
+    * How long the last background refresh of all the projects took in milliseconds
+    */
+   public long getLastRefreshDuration() {
+      return lastRefreshDuration;
+   }
+
+   /**
+    * When the last background refresh finished, 0 if there hasn't been one
+    */
+   public long getLastRefreshed() {
+      return lastRefreshed;
+   }
+
+   private synchronized void scheduleRefresh() {
+      if ( refreshScheduler == null ) return;
+      refreshScheduler.schedule(new Runnable() {
+         public void run() {
+            runRefresh();
+         }
+      }, refreshDelay, TimeUnit.SECONDS);
+   }
+
+   /**
+    * Refresh the projects and schedule the next refresh; back off while nothing changes and try again
+    * soon if the editor is busy
+    */
+   private void runRefresh() {
+      try {
+         if ( isBusy() ) refreshDelay = refreshInterval;
+         else if ( refreshProjects() ) refreshDelay = refreshInterval;
+         else refreshDelay = Math.min(refreshDelay * 2, maxRefreshInterval);
+      }
+      catch (RuntimeException e) {
+         // The error will show up again when the project is used
+         refreshDelay = refreshInterval;
+      }
+      scheduleRefresh();
+   }
+
+   /**
+    * Refresh each project that isn't kept up to date by a watcher, stopping if the editor gets busy
+    *
+    * @return Whether any project changed
+    */
+   boolean refreshProjects() {
+      long start = System.currentTimeMillis();
+      boolean changed = false;
+      for ( ProjectCache cache : projectsByName.values() ) {
+         if ( isBusy() ) return changed;
+         if ( cache.isWatching() ) continue;
+         ProjectSnapshot before = cache.getSnapshot();
+         try {
+            cache.refresh(true).get();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return changed;
+         }
+         catch (ExecutionException e) {
+            throw new RuntimeException("Error refreshing project "+cache.getProject().getName(), e.getCause());
+         }
+         changed |= cache.getSnapshot() != before;
+      }
+      lastRefreshed = System.currentTimeMillis();
+      lastRefreshDuration = lastRefreshed - start;
+      return changed;
+   }
+
+   private boolean isBusy() {
+      BusyCheck check = busyCheck;
+      return check != null && check.isBusy();
    }
 
    /**
@@ -52,28 +229,72 @@ public class ProjectManager {
     * Map projects by location for convenience
     */
    private void mapProjects() {
-      projectsByLocation = new HashMap<File, ProjectCache>();
-      projectsByName = new HashMap<String, ProjectCache>();
+      projectsByLocation = new ConcurrentHashMap<File, ProjectCache>();
+      projectsByName = new ConcurrentHashMap<String, ProjectCache>();
       for ( ProjectDef project : projects.getProjects() ) {
          mapProject(project);
       }
+      for ( ProjectCache cache : projectsByName.values() ) {
+         linkParent(cache);
+      }
+      for ( ProjectCache cache : projectsByName.values() ) {
+         if ( cache.getProject().isWatched() ) cache.startWatching();
+      }
+   }
+
+   /**
+    * Let the parent of a nested project know about it so the parent doesn't walk the nested project's files
+    */
+   private void linkParent(ProjectCache cache) {
+      String parentName = cache.getProject().getParent();
+      if ( parentName == null ) return;
+      ProjectCache parent = projectsByName.get(parentName);
+      if ( parent != null ) parent.addChildLocation(cache.getLocation());
    }
 
    private void mapProject(ProjectDef project) {
       ProjectCache cache = new ProjectCache(project);
       projectsByLocation.put(cache.getLocation(), cache);
       projectsByName.put(cache.getProject().getName(), cache);
+      projectLocations.add(cache);
+      cache.setIndexFile(getIndexFile(project));
+      cache.setRefreshListener(refreshListener);
+   }
+
+   /**
+    * Return the file used to save the file index for the given project
+    */
+   private File getIndexFile(ProjectDef project) {
+      return new File(indexDirectory, "projects."+project.getName().replaceAll("[^A-Za-z0-9._-]", "_")+".index");
    }
 
    /**
-    * Find the project for the given file by recursively searching parent directories until a project location is found;
-    * return null if no project is found
+    * Save the file index for the given project; the index is only an optimization so if it can't
+    * be written the project will just be scanned again next time
+    */
+   private void saveIndex(ProjectCache cache) {
+      try {
+         cache.saveIndex();
+      }
+      catch (IOException e) {
+         // Scan next time
+      }
+   }
+
+   /**
+    * Find the project for the given file; the project whose location is the deepest parent directory
+    * of the file wins, so files in a nested project belong to it rather than its parent.  Return null if
+    * no project is found
     */
    public ProjectCache findProjectForFile(File file) {
-      File dir = file.getParentFile();
-      if ( dir == null ) return null;
-      else if ( projectsByLocation.keySet().contains(file.getParentFile()) ) return projectsByLocation.get(file.getParentFile());
-      else return findProjectForFile(dir);
+      return findProjectForPath(file.getPath());
+   }
+
+   /**
+    * Find the project for the file with the given path, see {@link #findProjectForFile(File)}
+    */
+   public ProjectCache findProjectForPath(String path) {
+      return projectLocations.find(path);
    }
 
    /**
@@ -90,4 +311,12 @@ public class ProjectManager {
       return projectsByName;
    }
 
+   /**
+    * Whether the editor is busy with something the background refresh shouldn't compete with
+    */
+   public interface BusyCheck {
+
+      public boolean isBusy();
+   }
+
 }
@@ -0,0 +1,131 @@
+package net.contrapt.jeditutil.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scans a project tree in parallel; each directory is listed by its own fork-join task and
+ * subdirectories are forked so subtrees are spread across the pool's workers
+ */
+class ProjectScanner extends RecursiveAction {
+
+   /**
+    * Listing directories is mostly waiting on the file system so use more threads than cores
+    */
+   private static final ForkJoinPool pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors() * 2));
+
+   /**
+    * Scans nobody is waiting for use half the cores at low priority so they don't compete with the editor
+    */
+   private static final ForkJoinPool backgroundPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+         new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+               ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+               thread.setPriority(Thread.MIN_PRIORITY);
+               return thread;
+            }
+         }, null, false);
+
+   /**
+    * Don't report progress more often than this
+    */
+   private static final long PROGRESS_INTERVAL = 250;
+
+   private final Scan scan;
+
+   private final File dir;
+
+   private ProjectScanner(Scan scan, File dir) {
+      this.scan = scan;
+      this.dir = dir;
+   }
+
+   /**
+    * Scan the tree starting at the given directory into the given cache, reporting progress
+    * to the listener if there is one
+    *
+    * @param background Whether the scan is one nobody is waiting for
+    */
+   static void scan(ProjectCache cache, File location, ProjectCache.ScanListener listener, boolean background) {
+      Scan scan = new Scan(cache, listener);
+      (background ? backgroundPool : pool).invoke(new ProjectScanner(scan, location));
+      scan.reportProgress(true);
+   }
+
+   @Override
+   protected void compute() {
+      scan.cache.addScannedDirectory(dir, dir.lastModified());
+      boolean excluded = scan.cache.isExcluded(dir);
+      List<ProjectScanner> subdirectories = new ArrayList<ProjectScanner>();
+      List<String> names = new ArrayList<String>();
+      try {
+         DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath());
+         try {
+            for (Path path : stream) {
+               File file = path.toFile();
+               if (Files.isDirectory(path)) {
+                  if (scan.cache.isWalked(file)) subdirectories.add(new ProjectScanner(scan, file));
+               }
+               else if (excluded) {
+                  scan.cache.fileSkipped();
+               }
+               else {
+                  names.add(file.getName());
+               }
+            }
+         }
+         finally {
+            stream.close();
+         }
+      }
+      catch (IOException e) {
+         // Can't read the directory, same as an empty listing
+      }
+      scan.cache.getMetrics().directoryListed();
+      scan.cache.addScannedFiles(dir, names);
+      scan.directories.incrementAndGet();
+      scan.files.addAndGet(names.size());
+      scan.reportProgress(false);
+      invokeAll(subdirectories);
+   }
+
+   /**
+    * The state shared by all the tasks of one scan
+    */
+   private static class Scan {
+
+      private final ProjectCache cache;
+
+      private final ProjectCache.ScanListener listener;
+
+      private final AtomicInteger directories = new AtomicInteger();
+
+      private final AtomicInteger files = new AtomicInteger();
+
+      private final AtomicLong lastReported = new AtomicLong();
+
+      Scan(ProjectCache cache, ProjectCache.ScanListener listener) {
+         this.cache = cache;
+         this.listener = listener;
+      }
+
+      void reportProgress(boolean force) {
+         if (listener == null) return;
+         long now = System.currentTimeMillis();
+         long last = lastReported.get();
+         if (!force && (now - last < PROGRESS_INTERVAL || !lastReported.compareAndSet(last, now))) return;
+         listener.scanProgress(directories.get(), files.get());
+      }
+   }
+
+}
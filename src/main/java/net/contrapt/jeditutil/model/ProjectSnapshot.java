@@ -0,0 +1,42 @@
+package net.contrapt.jeditutil.model;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The directories and files of a project cache at one point in time; snapshots are never changed
+ * once they are published so they can be read from any thread without locking
+ */
+public class ProjectSnapshot {
+
+   private final Set<File> directories;
+
+   private final Map<String, File> files;
+
+   private final long created;
+
+   ProjectSnapshot(Set<File> directories, Map<String, File> files) {
+      this.directories = Collections.unmodifiableSet(new HashSet<File>(directories));
+      this.files = files;
+      this.created = System.currentTimeMillis();
+   }
+
+   public Set<File> getDirectories() {
+      return directories;
+   }
+
+   public Map<String, File> getFiles() {
+      return files;
+   }
+
+   /**
+    * When the snapshot was taken
+    */
+   public long getCreated() {
+      return created;
+   }
+
+}
@@ -0,0 +1,121 @@
+package net.contrapt.jeditutil.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the directories of a project for changes and applies them to the project's cache
+ * in the background; the cache registers each directory it discovers
+ */
+class ProjectWatcher implements Runnable {
+
+   private ProjectCache cache;
+
+   private WatchService watchService;
+
+   private Map<WatchKey, File> watchedDirectories = new ConcurrentHashMap<WatchKey, File>();
+
+   private Thread thread;
+
+   /**
+    * Has the initial scan of the project finished
+    */
+   private volatile boolean ready = false;
+
+   ProjectWatcher(ProjectCache cache) {
+      this.cache = cache;
+   }
+
+   /**
+    * Start the watcher thread; it brings the cache up to date before processing events
+    */
+   void start() throws IOException {
+      watchService = FileSystems.getDefault().newWatchService();
+      thread = new Thread(this, "ProjectWatcher-" + cache.getProject().getName());
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      thread.start();
+   }
+
+   /**
+    * Stop watching and release the watch service
+    */
+   void stop() {
+      ready = false;
+      try {
+         if (watchService != null) watchService.close();
+      }
+      catch (IOException e) {
+         // Nothing we can do about it
+      }
+      if (thread != null) thread.interrupt();
+      watchedDirectories.clear();
+   }
+
+   boolean isReady() {
+      return ready;
+   }
+
+   /**
+    * Register the given directory with the watch service
+    */
+   void register(File dir) {
+      try {
+         WatchKey key = dir.toPath().register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+         watchedDirectories.put(key, dir);
+      }
+      catch (ClosedWatchServiceException e) {
+         // We've been stopped
+      }
+      catch (IOException e) {
+         // The directory went away before we could watch it; the delete event will clean up
+      }
+   }
+
+   public void run() {
+      try {
+         cache.getDirectories();
+         ready = true;
+         while (true) {
+            WatchKey key = watchService.take();
+            File dir = watchedDirectories.get(key);
+            if (dir != null) processEvents(dir, key);
+            if (!key.reset()) watchedDirectories.remove(key);
+         }
+      }
+      catch (InterruptedException e) {
+         // Stopped
+      }
+      catch (ClosedWatchServiceException e) {
+         // Stopped
+      }
+   }
+
+   /**
+    * Apply the events for the given key to the cache; if events were lost do a full rescan
+    */
+   private void processEvents(File dir, WatchKey key) {
+      for (WatchEvent<?> event : key.pollEvents()) {
+         if (event.kind() == OVERFLOW) {
+            cache.rescan();
+            return;
+         }
+         File file = new File(dir, ((Path) event.context()).toString());
+         if (event.kind() == ENTRY_CREATE) cache.fileCreated(file);
+         else if (event.kind() == ENTRY_DELETE) cache.fileDeleted(file);
+      }
+   }
+
+}
@@ -0,0 +1,221 @@
+package net.contrapt.jeditutil.model;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what a project cache does to stay up to date and how long it takes; counters are cumulative
+ * until the cache is cleared
+ */
+public class ScanMetrics {
+
+   private final AtomicLong refreshes = new AtomicLong();
+
+   private final AtomicLong directoriesChecked = new AtomicLong();
+
+   private final AtomicLong directoriesListed = new AtomicLong();
+
+   private final AtomicLong directoriesSkipped = new AtomicLong();
+
+   private final AtomicLong filesAdded = new AtomicLong();
+
+   private final AtomicLong filesRemoved = new AtomicLong();
+
+   private final AtomicLong filesSkipped = new AtomicLong();
+
+   private final Histogram refreshTimes = new Histogram();
+
+   private final Histogram getFilesTimes = new Histogram();
+
+   /**
+    * The number of refreshes of the cache
+    */
+   public long getRefreshes() {
+      return refreshes.get();
+   }
+
+   /**
+    * The number of times a directory's modification time was checked
+    */
+   public long getDirectoriesChecked() {
+      return directoriesChecked.get();
+   }
+
+   /**
+    * The number of times a directory was listed
+    */
+   public long getDirectoriesListed() {
+      return directoriesListed.get();
+   }
+
+   /**
+    * The number of different directories not walked because they were excluded or belong to a nested
+    * project; a directory passed over again when its parent is listed again isn't counted again
+    */
+   public long getDirectoriesSkipped() {
+      return directoriesSkipped.get();
+   }
+
+   public long getFilesAdded() {
+      return filesAdded.get();
+   }
+
+   public long getFilesRemoved() {
+      return filesRemoved.get();
+   }
+
+   /**
+    * The number of files passed over because their directory is excluded
+    */
+   public long getFilesSkipped() {
+      return filesSkipped.get();
+   }
+
+   /**
+    * How long each refresh of the cache took
+    */
+   public Histogram getRefreshTimes() {
+      return refreshTimes;
+   }
+
+   /**
+    * How long callers of getFiles() waited, including any refresh
+    */
+   public Histogram getGetFilesTimes() {
+      return getFilesTimes;
+   }
+
+   void refreshed(long nanos) {
+      refreshes.incrementAndGet();
+      refreshTimes.record(nanos);
+   }
+
+   void filesReturned(long nanos) {
+      getFilesTimes.record(nanos);
+   }
+
+   void directoryChecked() {
+      directoriesChecked.incrementAndGet();
+   }
+
+   void directoryListed() {
+      directoriesListed.incrementAndGet();
+   }
+
+   void directorySkipped() {
+      directoriesSkipped.incrementAndGet();
+   }
+
+   void filesAdded(int count) {
+      filesAdded.addAndGet(count);
+   }
+
+   void filesRemoved(int count) {
+      filesRemoved.addAndGet(count);
+   }
+
+   void fileSkipped() {
+      filesSkipped.incrementAndGet();
+   }
+
+   void reset() {
+      refreshes.set(0);
+      directoriesChecked.set(0);
+      directoriesListed.set(0);
+      directoriesSkipped.set(0);
+      filesAdded.set(0);
+      filesRemoved.set(0);
+      filesSkipped.set(0);
+      refreshTimes.reset();
+      getFilesTimes.reset();
+   }
+
+   @Override
+   public String toString() {
+      return "refreshes=" + getRefreshes() +
+            " directoriesChecked=" + getDirectoriesChecked() +
+            " directoriesListed=" + getDirectoriesListed() +
+            " directoriesSkipped=" + getDirectoriesSkipped() +
+            " filesAdded=" + getFilesAdded() +
+            " filesRemoved=" + getFilesRemoved() +
+            " filesSkipped=" + getFilesSkipped() +
+            " refreshTimes[" + refreshTimes + "]" +
+            " getFilesTimes[" + getFilesTimes + "]";
+   }
+
+   /**
+    * A histogram of durations in power of two buckets of microseconds; bucket n holds durations of
+    * less than 2^n microseconds
+    */
+   public static class Histogram {
+
+      private static final int BUCKETS = 40;
+
+      private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+      private final AtomicLong count = new AtomicLong();
+
+      private final AtomicLong total = new AtomicLong();
+
+      private final AtomicLong max = new AtomicLong();
+
+      void record(long nanos) {
+         long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+         int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+         buckets.incrementAndGet(bucket);
+         count.incrementAndGet();
+         total.addAndGet(micros);
+         long m = max.get();
+         while (micros > m && !max.compareAndSet(m, micros)) m = max.get();
+      }
+
+      void reset() {
+         for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+         count.set(0);
+         total.set(0);
+         max.set(0);
+      }
+
+      public long getCount() {
+         return count.get();
+      }
+
+      /**
+       * The mean duration in milliseconds
+       */
+      public double getMean() {
+         long c = count.get();
+         return c == 0 ? 0 : total.get() / 1000.0 / c;
+      }
+
+      /**
+       * The longest duration in milliseconds
+       */
+      public double getMax() {
+         return max.get() / 1000.0;
+      }
+
+      /**
+       * The upper bound in milliseconds of the bucket containing the given percentile
+       */
+      public double getPercentile(double percentile) {
+         long c = count.get();
+         if (c == 0) return 0;
+         long target = (long) Math.ceil(c * percentile / 100.0);
+         long seen = 0;
+         for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) return Math.min((1L << i) / 1000.0, getMax());
+         }
+         return getMax();
+      }
+
+      @Override
+      public String toString() {
+         return String.format("count=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+               getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+      }
+   }
+
+}
@@ -0,0 +1,263 @@
+package net.contrapt.jeditutil.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index of the upper cased trigrams of file names and directory paths.  A file key contains
+ * a trigram if its name or its directory does, so rather than a posting per file there is a posting of
+ * names and one of directories per trigram, and the files with a name are chained together.  Names and
+ * directories are never reused once they are interned so postings are only appended to, in order; when
+ * the names are compacted they keep their order, so the postings just have their names moved.
+ * Trigrams spanning a space or parenthesis are left out since they could span the name and directory
+ * of a key.
+ */
+class TrigramIndex {
+
+   /**
+    * Names and directories containing each trigram
+    */
+   private final Map<Long, Posting> namePostings = new HashMap<Long, Posting>();
+
+   private final Map<Long, Posting> directoryPostings = new HashMap<Long, Posting>();
+
+   /**
+    * The first record of each name, by name offset
+    */
+   private int[] headKeys = new int[1024];
+
+   private int[] headRecords = new int[1024];
+
+   private int headCount = 0;
+
+   /**
+    * The records with the same name as each record are chained both ways
+    */
+   private int[] nextRecords = new int[1024];
+
+   private int[] previousRecords = new int[1024];
+
+   void addName(int nameOffset, String name) {
+      addTrigrams(namePostings, nameOffset, name);
+   }
+
+   void addDirectory(int directory, String relativePath) {
+      addTrigrams(directoryPostings, directory, relativePath);
+   }
+
+   /**
+    * Chain a new record onto the records of its name
+    */
+   void addRecord(int record, int nameOffset) {
+      if (record >= nextRecords.length) {
+         int capacity = Math.max(nextRecords.length * 2, record + 1);
+         nextRecords = Arrays.copyOf(nextRecords, capacity);
+         previousRecords = Arrays.copyOf(previousRecords, capacity);
+      }
+      int slot = findHead(nameOffset);
+      int head = slot < 0 ? -1 : headRecords[slot];
+      nextRecords[record] = head;
+      previousRecords[record] = -1;
+      if (head >= 0) previousRecords[head] = record;
+      setHead(slot, nameOffset, record);
+   }
+
+   void removeRecord(int record, int nameOffset) {
+      int next = nextRecords[record];
+      int previous = previousRecords[record];
+      if (next >= 0) previousRecords[next] = previous;
+      if (previous >= 0) nextRecords[previous] = next;
+      else setHead(findHead(nameOffset), nameOffset, next);
+   }
+
+   /**
+    * Move the names to their offsets after the names are compacted, dropping any that aren't given
+    *
+    * @param oldOffsets The offsets of the names kept, in increasing order
+    * @param newOffsets Their new offsets, in the same order
+    */
+   void moveNames(int[] oldOffsets, int[] newOffsets, int count) {
+      Iterator<Posting> postings = namePostings.values().iterator();
+      while (postings.hasNext()) {
+         Posting posting = postings.next();
+         posting.move(oldOffsets, newOffsets, count);
+         if (posting.size() == 0) postings.remove();
+      }
+      int[] oldKeys = headKeys;
+      int[] oldRecords = headRecords;
+      headKeys = new int[1024];
+      headRecords = new int[1024];
+      headCount = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+         if (oldKeys[i] == 0 || oldRecords[i] < 0) continue;
+         int moved = Arrays.binarySearch(oldOffsets, 0, count, oldKeys[i] - 1);
+         if (moved >= 0) setHead(-1, newOffsets[moved], oldRecords[i]);
+      }
+   }
+
+   /**
+    * The first record with the given name, -1 if there is none
+    */
+   int firstRecord(int nameOffset) {
+      int slot = findHead(nameOffset);
+      return slot < 0 ? -1 : headRecords[slot];
+   }
+
+   /**
+    * The next record with the same name as the given one, -1 if there is none
+    */
+   int nextRecord(int record) {
+      return nextRecords[record];
+   }
+
+   Posting getNames(long trigram) {
+      return namePostings.get(trigram);
+   }
+
+   Posting getDirectories(long trigram) {
+      return directoryPostings.get(trigram);
+   }
+
+   void clear() {
+      namePostings.clear();
+      directoryPostings.clear();
+      headKeys = new int[1024];
+      headRecords = new int[1024];
+      headCount = 0;
+   }
+
+   /**
+    * The distinct indexable trigrams of the given text, in the order they first appear
+    */
+   static long[] getTrigrams(Collection<String> texts) {
+      List<Long> trigrams = new ArrayList<Long>();
+      for (String text : texts) {
+         String upper = text.toUpperCase();
+         for (int i = 0; i + 3 <= upper.length(); i++) {
+            long trigram = trigram(upper, i);
+            if (trigram >= 0 && !trigrams.contains(trigram)) trigrams.add(trigram);
+         }
+      }
+      long[] result = new long[trigrams.size()];
+      for (int i = 0; i < result.length; i++) result[i] = trigrams.get(i);
+      return result;
+   }
+
+   private static void addTrigrams(Map<Long, Posting> postings, int id, String text) {
+      String upper = text.toUpperCase();
+      for (int i = 0; i + 3 <= upper.length(); i++) {
+         long trigram = trigram(upper, i);
+         if (trigram < 0) continue;
+         Posting posting = postings.get(trigram);
+         if (posting == null) {
+            posting = new Posting();
+            postings.put(trigram, posting);
+         }
+         posting.add(id);
+      }
+   }
+
+   /**
+    * The three chars starting at the given index packed into a long, -1 if they aren't indexed
+    */
+   private static long trigram(String text, int start) {
+      long trigram = 0;
+      for (int i = start; i < start + 3; i++) {
+         char c = text.charAt(i);
+         if (c == ' ' || c == '(' || c == ')') return -1;
+         trigram = (trigram << 16) | c;
+      }
+      return trigram;
+   }
+
+   //
+   // Open addressing table of name offset + 1 to first record
+   //
+
+   private int findHead(int nameOffset) {
+      int mask = headKeys.length - 1;
+      int slot = hash(nameOffset) & mask;
+      while (headKeys[slot] != 0) {
+         if (headKeys[slot] == nameOffset + 1) return slot;
+         slot = (slot + 1) & mask;
+      }
+      return -1;
+   }
+
+   private void setHead(int slot, int nameOffset, int record) {
+      if (slot >= 0) {
+         headRecords[slot] = record;
+         return;
+      }
+      if ((headCount + 1) * 2 > headKeys.length) rehashHeads();
+      int mask = headKeys.length - 1;
+      slot = hash(nameOffset) & mask;
+      while (headKeys[slot] != 0) slot = (slot + 1) & mask;
+      headKeys[slot] = nameOffset + 1;
+      headRecords[slot] = record;
+      headCount++;
+   }
+
+   private void rehashHeads() {
+      int[] oldKeys = headKeys;
+      int[] oldRecords = headRecords;
+      headKeys = new int[oldKeys.length * 2];
+      headRecords = new int[oldKeys.length * 2];
+      headCount = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+         if (oldKeys[i] != 0) setHead(-1, oldKeys[i] - 1, oldRecords[i]);
+      }
+   }
+
+   private static int hash(int value) {
+      int h = value * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+
+   /**
+    * The ids of the names or directories containing a trigram, in increasing order
+    */
+   static class Posting {
+
+      private int[] ids = new int[4];
+
+      private int count = 0;
+
+      void add(int id) {
+         // A name can contain the same trigram more than once
+         if (count > 0 && ids[count - 1] == id) return;
+         if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+         ids[count++] = id;
+      }
+
+      int size() {
+         return count;
+      }
+
+      int get(int index) {
+         return ids[index];
+      }
+
+      /**
+       * Replace the ids with the new ones for them, dropping any that have none
+       */
+      void move(int[] oldIds, int[] newIds, int mapped) {
+         int n = 0;
+         for (int i = 0; i < count; i++) {
+            int moved = Arrays.binarySearch(oldIds, 0, mapped, ids[i]);
+            if (moved >= 0) ids[n++] = newIds[moved];
+         }
+         count = n;
+      }
+
+      boolean contains(int id) {
+         return Arrays.binarySearch(ids, 0, count, id) >= 0;
+      }
+   }
+
+}
@@ -0,0 +1,19 @@
+package net.contrapt.jeditutil.process;
+
+/**
+* An <code>OutputHandler</code> that takes lines of output as the bytes the process wrote, so they
+* needn't be decoded if the handler doesn't look at them or can look at the bytes.  <code>ProcessRunner</code>
+* calls this instead of <code>processLine(String)</code>
+*/
+public interface ByteOutputHandler extends OutputHandler {
+
+   /**
+   * Process a line of output
+   *
+   * @param bytes Holds the line without its end; only valid until this returns
+   * @param offset Where the line starts in bytes
+   * @param length The length of the line
+   */
+   public void processLine(byte[] bytes, int offset, int length);
+
+}
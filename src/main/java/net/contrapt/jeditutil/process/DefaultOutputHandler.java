@@ -2,13 +2,17 @@ package net.contrapt.jeditutil.process;
 
 /**
 * A default implementation of <code>OutputHandler</code> which does nothing; used in case
-* a null handler is passed into the <code>ProcessRunner</code>
+* a null handler is passed into the <code>ProcessRunner</code>; it takes the output as bytes so none
+* of it is decoded for nothing
 */
-public class DefaultOutputHandler implements OutputHandler {
+public class DefaultOutputHandler implements ByteOutputHandler {
 
    public void processLine(String line) {
    }
 
+   public void processLine(byte[] bytes, int offset, int length) {
+   }
+
    public void finish() {
    }
 
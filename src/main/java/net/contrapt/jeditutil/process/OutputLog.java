@@ -0,0 +1,104 @@
+package net.contrapt.jeditutil.process;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+* Writes all of a process's output to a file as the bytes it was written in and remembers where every
+* so many lines start, so any range of lines can be read back by seeking close to it rather than
+* reading from the start of the file
+*/
+class OutputLog {
+
+	static final int INDEX_INTERVAL = 1024;
+
+	private final File file;
+	private final int indexInterval;
+	private final Charset charset = Charset.defaultCharset();
+	private final OutputStream out;
+	private long[] offsets = new long[64];
+	private long lineCount = 0;
+	private long fileLength = 0;
+	private boolean closed = false;
+
+	OutputLog(File file) throws IOException {
+		this(file, INDEX_INTERVAL);
+	}
+
+	OutputLog(File file, int indexInterval) throws IOException {
+		this.file = file;
+		this.indexInterval = indexInterval;
+		this.out = new BufferedOutputStream(new FileOutputStream(file));
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	* Write a line to the end of the file, indexing it if it starts a new interval
+	*
+	* @param bytes The line without its end
+	*/
+	synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+		if ( lineCount % indexInterval == 0 ) {
+			int ndx = (int)(lineCount / indexInterval);
+			if ( ndx == offsets.length ) offsets = Arrays.copyOf(offsets, ndx*2);
+			offsets[ndx] = fileLength;
+		}
+		out.write(bytes, offset, length);
+		out.write('\n');
+		fileLength += length+1;
+		lineCount++;
+	}
+
+	/**
+	* Return the number of lines written
+	*/
+	synchronized long getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	* Read up to count lines starting from the given line number; the read starts at the nearest
+	* indexed line before it.  Every line was written with a '\n' after it, so only that ends a line
+	* here and a '\r' inside a line doesn't
+	*/
+	synchronized List<String> readLines(final long from, final int count) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		if ( from < 0 || from >= lineCount || count <= 0 ) return lines;
+		if ( !closed ) out.flush();
+		final int ndx = (int)(from / indexInterval);
+		final long last = Math.min(lineCount, from+count);
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			channel.position(offsets[ndx]);
+			new OutputPump(channel, OutputPump.BUFFER_SIZE, false).pump(new OutputPump.LineSink() {
+				long number = (long)ndx*indexInterval;
+				public boolean line(byte[] bytes, int offset, int length) {
+					if ( number >= from ) lines.add(new String(bytes, offset, length, charset));
+					return ++number < last;
+				}
+			});
+		}
+		finally {
+			in.close();
+		}
+		return lines;
+	}
+
+	/**
+	* Close the file; lines can still be read afterwards
+	*/
+	synchronized void close() throws IOException {
+		if ( closed ) return;
+		closed = true;
+		out.close();
+	}
+
+}
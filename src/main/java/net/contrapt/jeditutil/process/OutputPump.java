@@ -0,0 +1,108 @@
+package net.contrapt.jeditutil.process;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+* Reads a process's output from a channel into a reused buffer and hands each line to a sink as a range
+* of that buffer, so nothing is decoded or copied unless the sink does it.  Lines end with '\n', '\r' or
+* "\r\n" the way <code>BufferedReader</code> splits them, so progress lines rewritten with a bare '\r'
+* come out one at a time; this works for any charset that encodes both as one byte, which is any the
+* platform default is likely to be
+*/
+class OutputPump {
+
+	static final int BUFFER_SIZE = 64*1024;
+
+	private final ReadableByteChannel channel;
+	private final boolean returnEndsLine;
+	private ByteBuffer buffer;
+
+	OutputPump(ReadableByteChannel channel) {
+		this(channel, BUFFER_SIZE, true);
+	}
+
+	OutputPump(ReadableByteChannel channel, int bufferSize) {
+		this(channel, bufferSize, true);
+	}
+
+	/**
+	* @param returnEndsLine Whether a '\r' on its own ends a line; if not, lines only end with '\n' and
+	* a '\r' before it is left out
+	*/
+	OutputPump(ReadableByteChannel channel, int bufferSize, boolean returnEndsLine) {
+		this.channel = channel;
+		this.returnEndsLine = returnEndsLine;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+
+	/**
+	* Receives lines of output; the bytes are only valid until it returns
+	*/
+	interface LineSink {
+
+		/**
+		* Take a line of output
+		*
+		* @return Whether to keep reading
+		*/
+		boolean line(byte[] bytes, int offset, int length) throws IOException;
+	}
+
+	/**
+	* Send lines to the sink until the channel ends or the sink asks to stop; a last line without an
+	* end is sent when the channel ends
+	*/
+	void pump(LineSink sink) throws IOException {
+		int scanned = 0;
+		// A '\n' straight after a '\r' that ended a line is part of the same line end
+		boolean afterReturn = false;
+		while ( true ) {
+			if ( !buffer.hasRemaining() ) grow();
+			int read = channel.read(buffer);
+			byte[] bytes = buffer.array();
+			if ( read < 0 ) {
+				if ( buffer.position() > 0 ) sink.line(bytes, 0, lineLength(bytes, 0, buffer.position()));
+				return;
+			}
+			int start = 0;
+			int end = buffer.position();
+			for ( int i=scanned; i<end; i++ ) {
+				if ( bytes[i] == '\n' ) {
+					if ( afterReturn ) afterReturn = false;
+					else if ( !sink.line(bytes, start, lineLength(bytes, start, i)) ) return;
+					start = i+1;
+				}
+				else if ( bytes[i] == '\r' && returnEndsLine ) {
+					afterReturn = true;
+					if ( !sink.line(bytes, start, i-start) ) return;
+					start = i+1;
+				}
+				else afterReturn = false;
+			}
+			// Move the start of the unfinished line to the front
+			System.arraycopy(bytes, start, bytes, 0, end-start);
+			buffer.position(end-start);
+			scanned = end-start;
+		}
+	}
+
+	/**
+	* The length of the line from start to end leaving out a '\r' at the end
+	*/
+	private static int lineLength(byte[] bytes, int start, int end) {
+		return ( end > start && bytes[end-1] == '\r' ) ? end-start-1 : end-start;
+	}
+
+	/**
+	* Double the buffer to fit a line longer than it
+	*/
+	private void grow() {
+		ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity()*2);
+		buffer.flip();
+		bigger.put(buffer);
+		buffer = bigger;
+	}
+
+}
@@ -0,0 +1,131 @@
+package net.contrapt.jeditutil.process;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+* Keeps the last lines of a process's output in memory so the output buffer can be tailed without
+* reading back everything the process wrote.  Lines are stored as the bytes the process wrote in fixed
+* size segments and only decoded when they're read; once the oldest segment is no longer needed to make
+* up the tail it is dropped whole, so memory stays within one segment of the tail size.  Lines are
+* numbered from the start of the output, including those that have been dropped
+*/
+class OutputRing {
+
+	static final int SEGMENT_LINES = 1024;
+
+	private final int capacity;
+	private final int segmentLines;
+	private final Charset charset = Charset.defaultCharset();
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private long firstLine = 0;
+	private long lineCount = 0;
+
+	/**
+	* @param capacity The number of lines to keep, 0 or less to keep them all
+	*/
+	OutputRing(int capacity) {
+		this(capacity, SEGMENT_LINES);
+	}
+
+	OutputRing(int capacity, int segmentLines) {
+		this.capacity = capacity;
+		this.segmentLines = segmentLines;
+	}
+
+	/**
+	* Add a line to the end of the output, dropping the oldest segment if the rest still hold the tail
+	*
+	* @param bytes The line without its end, which is copied
+	*/
+	synchronized void add(byte[] bytes, int offset, int length) {
+		int ndx = (int)(lineCount - firstLine) % segmentLines;
+		if ( ndx == 0 ) segments.add(new Segment(segmentLines));
+		segments.get(segments.size()-1).add(bytes, offset, length);
+		lineCount++;
+		if ( capacity > 0 && lineCount - firstLine - segmentLines >= capacity ) {
+			segments.remove(0);
+			firstLine += segmentLines;
+		}
+	}
+
+	/**
+	* Return the number of lines ever added
+	*/
+	synchronized long getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	* Return the number of the first line of the tail
+	*/
+	synchronized long getTailStart() {
+		return ( capacity > 0 ) ? Math.max(firstLine, lineCount - capacity) : firstLine;
+	}
+
+	/**
+	* Return the lines of the tail starting from the given line number; lines no longer in the tail
+	* are left out
+	*/
+	synchronized List<String> getLines(long from) {
+		return getTail(from).lines;
+	}
+
+	/**
+	* Return the start of the tail and its lines from the given line number together, so lines added
+	* meanwhile can't make them disagree
+	*/
+	synchronized Tail getTail(long from) {
+		long tailStart = getTailStart();
+		long start = Math.max(from, tailStart);
+		List<String> lines = new ArrayList<String>((int)Math.max(0, lineCount - start));
+		for ( long line=start; line<lineCount; line++ ) {
+			long offset = line - firstLine;
+			lines.add(segments.get((int)(offset / segmentLines)).get((int)(offset % segmentLines), charset));
+		}
+		return new Tail(tailStart, lines);
+	}
+
+	/**
+	* The number of the first line of the tail and some of its lines
+	*/
+	static class Tail {
+
+		final long start;
+		final List<String> lines;
+
+		Tail(long start, List<String> lines) {
+			this.start = start;
+			this.lines = lines;
+		}
+	}
+
+	/**
+	* The bytes of a run of lines one after the other and where each ends
+	*/
+	private static class Segment {
+
+		private byte[] data = new byte[8192];
+		private final int[] ends;
+		private int count = 0;
+
+		Segment(int lines) {
+			ends = new int[lines];
+		}
+
+		void add(byte[] bytes, int offset, int length) {
+			int start = ( count == 0 ) ? 0 : ends[count-1];
+			if ( start + length > data.length ) data = Arrays.copyOf(data, Math.max(data.length*2, start+length));
+			System.arraycopy(bytes, offset, data, start, length);
+			ends[count++] = start + length;
+		}
+
+		String get(int ndx, Charset charset) {
+			int start = ( ndx == 0 ) ? 0 : ends[ndx-1];
+			return new String(data, start, ends[ndx]-start, charset);
+		}
+	}
+
+}
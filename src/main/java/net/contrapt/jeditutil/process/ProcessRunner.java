@@ -3,10 +3,15 @@ package net.contrapt.jeditutil.process;
 import java.io.*;
 import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.awt.event.*;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.util.regex.Pattern;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 
 import net.contrapt.jeditutil.*;
 import net.contrapt.jeditutil.pluginpanel.PluginPanel;
@@ -30,7 +35,9 @@ public class ProcessRunner implements Runnable {
 	private static ProcessRunnerKeyListener keyListener = new ProcessRunnerKeyListener(); 
 	private static int DEFAULT_LIST_SIZE = 20;
 	private static int DEFAULT_TAIL_LINES = 5000;
+	private static int LIVE_TAIL_INTERVAL = 100;
 	private static int listSize = DEFAULT_LIST_SIZE;
+	private static Charset charset = Charset.defaultCharset();
 	private static int bufferCount = 0;
 
 	private String name;
@@ -45,13 +52,19 @@ public class ProcessRunner implements Runnable {
 	private Exception exception;
 	private StateEnum state=StateEnum.RUNNING;
 	private String description;
-	private File outputFile;
-	private BufferedWriter output;
-	private int linesWritten;
+	private OutputRing ring;
+	private boolean spillOutput = true;
+	private OutputLog log;
 	private Buffer buffer;
 	private ProcessRunnerInfoPanel infoPanel;
 	private int tailLines = DEFAULT_TAIL_LINES;
 	private boolean bufferChanged = false;
+	private long shownStart = 0;
+	private long shownEnd = 0;
+	private boolean liveTail = false;
+	private volatile boolean liveShown = false;
+	private final AtomicBoolean livePending = new AtomicBoolean();
+	private final javax.swing.Timer liveTimer;
 	private boolean killed = false;
 	private int sequence;
 
@@ -109,6 +122,27 @@ public class ProcessRunner implements Runnable {
 		return listModel.getRunningServers();
 	}
 
+	/**
+	* Is any process other than a server running
+	*/
+	public static boolean isBusy() {
+		for ( ProcessRunner runner : getProcesses() ) {
+			if ( runner.isRunning() && !runner.isServer() ) return true;
+		}
+		return false;
+	}
+
+	/**
+	* Called when an edit pane switches to the given buffer; if it is a process's output buffer, resume
+	* pushing output to it however it was shown
+	*/
+	public static void bufferShown(Buffer buffer) {
+		if ( buffer == null ) return;
+		for ( ProcessRunner runner : getProcesses() ) {
+			if ( runner.buffer == buffer ) runner.bufferShown();
+		}
+	}
+
 	/**
 	* Clean up resources when shutdown
 	*/
@@ -126,6 +160,13 @@ public class ProcessRunner implements Runnable {
 		this.display = spec.getDisplay();
 		setServerStartedExpression(spec.getServerStartedExpression());
 		this.sequence = ++bufferCount;
+		// New output waits for the timer so it reaches the buffer in batches
+		liveTimer = new javax.swing.Timer(LIVE_TAIL_INTERVAL, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				pushLiveTail();
+			}
+		});
+		liveTimer.setRepeats(false);
 	}
 
 	/**
@@ -211,7 +252,7 @@ public class ProcessRunner implements Runnable {
 	}
 
 	/**
-	* Set the number of lines to tail output; 0 for no tail
+	* Set the number of lines to tail output; 0 for no tail.  Only the tail is kept in memory
 	*
 	* @param tailLines The number of output lines to tail or 0 for no tail
 	*/
@@ -219,6 +260,55 @@ public class ProcessRunner implements Runnable {
 		this.tailLines = tailLines;
 	}
 
+	/**
+	* Set whether all of the output is also written to a temp file; the buffer only ever shows the
+	* tail, which is kept in memory.  Defaults to true
+	*
+	* @param spillOutput Whether to write the output to a file
+	*/
+	public void setSpillOutput(boolean spillOutput) {
+		this.spillOutput = spillOutput;
+	}
+
+	/**
+	* Set whether new output is pushed to the buffer while it's showing, rather than waiting for
+	* a refresh.  Defaults to false
+	*/
+	public void setLiveTail(boolean liveTail) {
+		this.liveTail = liveTail;
+		liveShown = liveTail && buffer != null && !buffer.isClosed();
+		scheduleLiveTail();
+		if ( display ) listModel.update(this);
+	}
+
+	/**
+	* Is new output pushed to the buffer while it's showing
+	*/
+	public boolean isLiveTail() {
+		return liveTail;
+	}
+
+	/**
+	* Return the number of lines of output so far
+	*/
+	public long getLinesWritten() {
+		return ( ring == null ) ? 0 : ring.getLineCount();
+	}
+
+	/**
+	* Return up to count lines of output starting from the given line number; lines before the tail
+	* can only be read if the output is written to a file
+	*
+	* @param from The number of the first line, counting from 0
+	* @param count The most lines to return
+	*/
+	public List<String> getOutputLines(long from, int count) throws IOException {
+		if ( ring == null ) return new ArrayList<String>();
+		if ( log != null && from < ring.getTailStart() ) return log.readLines(from, count);
+		List<String> lines = ring.getLines(from);
+		return ( lines.size() > count ) ? lines.subList(0, count) : lines;
+	}
+
 	/**
 	* Implement <code>Runnable</code>
 	*/
@@ -226,11 +316,14 @@ public class ProcessRunner implements Runnable {
 		thread = Thread.currentThread();
 		if ( display ) listModel.add(this);
 		description = builder.command().toString();
+		ring = new OutputRing(tailLines);
 		try {
-			outputFile = File.createTempFile(name.replace(':','.'), null);
-			outputFile.deleteOnExit();
-			output = new BufferedWriter(new FileWriter(outputFile));
-			description += "\n"+outputFile;
+			if ( spillOutput ) {
+				File outputFile = File.createTempFile(name.replace(':','.'), null);
+				outputFile.deleteOnExit();
+				log = new OutputLog(outputFile);
+				description += "\n"+outputFile;
+			}
 		}
 		catch (Exception e) {
 			exception = e;
@@ -251,29 +344,20 @@ public class ProcessRunner implements Runnable {
 			for ( StackTraceElement el : e.getStackTrace() ) description +="\n	"+el;
 			processFinished(StateEnum.DONE);
 			bufferChanged = true;
-			try { output.close(); }
+			try { if ( log != null ) log.close(); }
 			catch (Exception e1) {}
-			output=null;
 			return;
 		}
-		BufferedReader in = null;
+		ReadableByteChannel in = null;
 		try {
-			in = new BufferedReader(new InputStreamReader(process.getInputStream()));
-			String line = null;
+			in = Channels.newChannel(process.getInputStream());
 			processStarted();
-			while ( true ) {
-				line = in.readLine();
-				if ( line == null ) break;
-				synchronized(outputFile) {
-					output.write(line);
-					output.newLine();
+			new OutputPump(in).pump(new OutputPump.LineSink() {
+				public boolean line(byte[] bytes, int offset, int length) throws IOException {
+					processLine(bytes, offset, length);
+					return !killed;
 				}
-				linesWritten++;
-				bufferChanged = true;
-				handler.processLine(line);
-				checkServerStarted(line);
-				if ( killed ) break;
-			}
+			});
 			processFinished(StateEnum.WAITING);
 			status = process.waitFor();
 		}
@@ -288,12 +372,81 @@ public class ProcessRunner implements Runnable {
 			handler.finish();
 			try { in.close(); }
 			catch (Exception e) {}
-			try { output.close(); }
+			try { if ( log != null ) log.close(); }
 			catch (Exception e) {}
-			output = null;
 			in = null;
 			Log.log(Log.DEBUG, this, "Finished running process:\n "+description);
 			processFinished(StateEnum.DONE);
+			scheduleLiveTail();
+		}
+	}
+
+	/**
+	* Start the timer to push new output to the buffer if it's showing and the timer isn't already
+	* waiting; output arriving until it fires goes in the same batch
+	*/
+	private void scheduleLiveTail() {
+		if ( liveShown && livePending.compareAndSet(false, true) ) liveTimer.start();
+	}
+
+	/**
+	* Push the output written since the last push to the buffer; if the buffer was closed or isn't showing
+	* any more, stop until it's shown again.  Text areas at the end of the buffer stay at the end
+	*/
+	private void pushLiveTail() {
+		livePending.set(false);
+		if ( !liveShown ) return;
+		List<EditPane> panes = getShowingPanes();
+		if ( panes.isEmpty() ) {
+			liveShown = false;
+			return;
+		}
+		if ( !bufferChanged ) return;
+		List<EditPane> following = new ArrayList<EditPane>();
+		for ( EditPane pane : panes ) {
+			if ( pane.getTextArea().getCaretPosition() >= buffer.getLength() ) following.add(pane);
+		}
+		tailOutput();
+		for ( EditPane pane : following ) pane.getTextArea().goToBufferEnd(false);
+	}
+
+	/**
+	* Return the edit panes showing the buffer
+	*/
+	private List<EditPane> getShowingPanes() {
+		List<EditPane> panes = new ArrayList<EditPane>();
+		if ( buffer == null || buffer.isClosed() ) return panes;
+		for ( View view : jEdit.getViews() ) {
+			for ( EditPane pane : view.getEditPanes() ) {
+				if ( pane.getBuffer() == buffer ) panes.add(pane);
+			}
+		}
+		return panes;
+	}
+
+	/**
+	* The buffer is being shown, so start pushing output to it again if live tailing; output written
+	* while it was hidden is pushed too
+	*/
+	private void bufferShown() {
+		liveShown = liveTail;
+		if ( bufferChanged ) scheduleLiveTail();
+	}
+
+	/**
+	* Keep a line of output and pass it on to the handler; it's only decoded if the handler takes
+	* strings or a server is waiting to start
+	*/
+	private void processLine(byte[] bytes, int offset, int length) throws IOException {
+		ring.add(bytes, offset, length);
+		if ( log != null ) log.write(bytes, offset, length);
+		bufferChanged = true;
+		scheduleLiveTail();
+		String line = null;
+		if ( handler instanceof ByteOutputHandler ) ((ByteOutputHandler)handler).processLine(bytes, offset, length);
+		else handler.processLine(line = new String(bytes, offset, length, charset));
+		if ( isStarting() && serverStartedPattern != null ) {
+			checkServerStarted(( line == null ) ? new String(bytes, offset, length, charset) : line);
 		}
 	}
 
@@ -341,14 +494,22 @@ public class ProcessRunner implements Runnable {
 		View view = jEdit.getActiveView();
 		if ( buffer == null || buffer.isClosed() ) {
 			buffer = jEdit.openTemporary(view, null, name+"-"+sequence, true);
+			// Output is only ever appended or trimmed, so there is nothing to undo
+			buffer.setUndoLimit(0);
+			shownStart = 0;
+			shownEnd = 0;
 			tailOutput();
 			jEdit.commitTemporary(buffer);
 			view.getEditPane().setBuffer(buffer, true);
 			view.getTextArea().goToBufferStart(false);
 			infoPanel = new ProcessRunnerInfoPanel(this);
 			infoPanel.addPluginPanel(view, infoPanel);
+			bufferShown();
 		}
 		else {
+			liveShown = false;
+			liveTimer.stop();
+			livePending.set(false);
 			jEdit._closeBuffer(view, buffer);
 			buffer = null;
 			infoPanel = null;
@@ -363,6 +524,7 @@ public class ProcessRunner implements Runnable {
 		if ( buffer == null || buffer.isClosed() ) return;
 		View view = jEdit.getActiveView();
 		view.goToBuffer(buffer);
+		bufferShown();
 	}
 
 	/**
@@ -390,43 +552,35 @@ public class ProcessRunner implements Runnable {
 		View view = jEdit.getActiveView();
 		view.getEditPane().setBuffer(buffer, true);
 		view.getTextArea().goToBufferEnd(false);
+		bufferShown();
 	}
 
 	/**
-	* Insert the appropriate lines from the output to implement tailing
+	* Bring the buffer up to date with the tail of the output: lines that fell out of the tail are removed
+	* from the top in one go and the lines written since the last refresh are appended in one go
 	*/
 	private void tailOutput() {
-		if ( outputFile == null ) return;
+		if ( ring == null ) return;
 		if ( buffer == null || buffer.isClosed() ) return;
 		bufferChanged = false;
+		OutputRing.Tail tail = ring.getTail(shownEnd);
+		long tailStart = tail.start;
+		List<String> lines = tail.lines;
+		StringBuilder text = new StringBuilder();
+		for ( String line : lines ) text.append(line).append('\n');
 		buffer.setReadOnly(false);
-		int position = 0;
-		int linesOverLimit = linesWritten-tailLines;
-		int removeToOffset = (linesOverLimit > 0 && buffer.getLength() > 0) ? buffer.getLineEndOffset(linesOverLimit) : 0;
-		buffer.remove(position, removeToOffset);
-		position = buffer.getLength();
-		int skipLines = (linesOverLimit < 0) ? buffer.getLineCount() : linesOverLimit+buffer.getLineCount();
-		BufferedReader tail = null;
+		buffer.beginCompoundEdit();
 		try {
-			if ( output != null ) output.flush();
-			tail = new BufferedReader(new FileReader(outputFile));
-			synchronized(outputFile) {
-				while ( true ) {
-					String line = tail.readLine();
-					if ( line == null ) break;
-					if ( --skipLines > 0 ) continue;
-					buffer.insert(position, line+"\n");
-					position += line.length()+1;
-				}
-			}
-		}
-		catch (IOException e) {
-			buffer.insert(position, "Error tailing file "+outputFile+": "+e);
+			long removeLines = Math.min(tailStart, shownEnd) - shownStart;
+			if ( shownEnd <= tailStart ) buffer.remove(0, buffer.getLength());
+			else if ( removeLines > 0 ) buffer.remove(0, buffer.getLineStartOffset((int)removeLines));
+			if ( text.length() > 0 ) buffer.insert(buffer.getLength(), text.toString());
 		}
 		finally {
-			try { tail.close(); }
-			catch (Exception e) {}
+			buffer.endCompoundEdit();
 		}
+		shownStart = tailStart;
+		shownEnd = Math.max(shownEnd, tailStart) + lines.size();
 		buffer.setDirty(false);
 		buffer.setReadOnly(true);
 	}
@@ -448,6 +602,7 @@ public class ProcessRunner implements Runnable {
 		if ( handler.getErrorMessage() != null ) string.append(";"+handler.getErrorMessage());
 		if ( exception != null ) string.append(";"+exception.getClass());
 		if ( buffer != null && !buffer.isClosed() ) string.append(";"+"OPEN");
+		if ( liveTail ) string.append(";"+"LIVE");
 		return string.toString();
 	}
 
@@ -482,6 +637,13 @@ public class ProcessRunner implements Runnable {
 		if ( runner != null ) runner.killProcess();
 	}
 
+	private static void toggleLiveTail(JList list) {
+		int index = list.getSelectedIndex();
+		if ( index < 0 ) return;
+		ProcessRunner runner = listModel.get(index);
+		if ( runner != null ) runner.setLiveTail(!runner.isLiveTail());
+	}
+
 	private static void reloadBuffer(JList list) {
 		int index = list.getSelectedIndex();
 		if ( index < 0 ) return;
@@ -497,7 +659,8 @@ public class ProcessRunner implements Runnable {
 		private List<ProcessRunner> runners;
 		
 		ProcessRunnerListModel() {
-			runners = new ArrayList<ProcessRunner>();
+			// Read from background threads checking whether anything is running
+			runners = new CopyOnWriteArrayList<ProcessRunner>();
 		}
 
 		public ProcessRunner get(int index) {
@@ -639,6 +802,10 @@ public class ProcessRunner implements Runnable {
 					reloadBuffer((JList)o);
 					argEvent.consume();
 					break;
+				case KeyEvent.VK_L:
+					toggleLiveTail((JList)o);
+					argEvent.consume();
+					break;
 				case KeyEvent.VK_ENTER:
 					handleSelected((JList)o);
 					argEvent.consume();
@@ -684,6 +851,16 @@ public class ProcessRunner implements Runnable {
 				}
 			};
 			(tb.add(a)).setMnemonic(KeyEvent.VK_R);
+			// Action to push output to the buffer as it arrives
+			a = new AbstractAction("Live") {
+				public void actionPerformed(ActionEvent e) {
+					runner.setLiveTail(((AbstractButton)e.getSource()).isSelected());
+				}
+			};
+			JCheckBox live = new JCheckBox(a);
+			live.setSelected(runner.isLiveTail());
+			live.setMnemonic(KeyEvent.VK_L);
+			tb.add(live);
 			// An action to kill the process
 			a = new AbstractAction("Kill") {
 				public void actionPerformed(ActionEvent e) {
@@ -36,4 +36,23 @@ public class ActionSelector extends UtilSelector<Object, EditAction> {
       return defaultValue;
    }
 
+   /**
+    * Actions change when plugins are loaded or unloaded and when macros are rescanned
+    */
+   public boolean isCached() {
+      return true;
+   }
+
+   /**
+    * Action sets can also be added without a message, so check the cached actions are all there is
+    */
+   protected boolean isCacheCurrent(Map<String, EditAction> cached) {
+      String[] names = (String[]) jEdit.getActionNames();
+      if ( names.length != cached.size() ) return false;
+      for ( String name : names ) {
+         if ( !cached.containsKey(name) ) return false;
+      }
+      return true;
+   }
+
 }
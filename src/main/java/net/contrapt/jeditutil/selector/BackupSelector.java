@@ -4,9 +4,14 @@ import org.gjt.sp.jedit.jEdit;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -17,6 +22,8 @@ import java.util.TreeMap;
  */
 public class BackupSelector extends UtilSelector<Object, File> {
 
+   private static final int BATCH_SIZE = 500;
+
    File localFile = new File(defaultValue);
    DateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
@@ -29,13 +36,40 @@ public class BackupSelector extends UtilSelector<Object, File> {
    }
 
    public Map<String, File> loadValueMap() {
+      return streamValueMap(null);
+   }
+
+   /**
+    * Backup directories can be big so pass the versions on in batches as they are found
+    */
+   public Map<String, File> streamValueMap(ValueStream<File> stream) {
       FilenameFilter filter = getFilenameFilter();
       File dir = getBackupDir();
       Map<String, File> entries = new TreeMap<String, File>();
-      for (File file : dir.listFiles(filter)) {
-         String key = format.format(new Date(file.lastModified()));
-         entries.put(key, file);
+      Map<String, File> batch = new HashMap<String, File>();
+      DirectoryStream<Path> files = null;
+      try {
+         files = Files.newDirectoryStream(dir.toPath());
+         for (Path path : files) {
+            if (Thread.currentThread().isInterrupted()) break;
+            File file = path.toFile();
+            if (!filter.accept(dir, file.getName())) continue;
+            String key = format.format(new Date(file.lastModified()));
+            entries.put(key, file);
+            batch.put(key, file);
+            if (stream != null && batch.size() == BATCH_SIZE) {
+               stream.add(batch);
+               batch = new HashMap<String, File>();
+            }
+         }
+      }
+      catch (IOException e) {
+         // No backups, or none that can be read
+      }
+      finally {
+         if (files != null) try { files.close(); } catch (IOException e) {}
       }
+      if (stream != null && !batch.isEmpty()) stream.add(batch);
       return entries;
    }
 
@@ -36,6 +36,13 @@ public class BufferSelector extends UtilSelector<Object, Buffer> {
       return defaultValue;
    }
 
+   /**
+    * Buffers only change when they are opened, closed or saved
+    */
+   public boolean isCached() {
+      return true;
+   }
+
    public ListCellRenderer getListCellRenderer() {
       return new DefaultListCellRenderer() {
          public Component getListCellRendererComponent(JList list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
@@ -157,15 +157,12 @@ public class CompletionDialog extends JDialog {
       String completedValue = selector.filterList(filterString);
       // For search as you type (not auto complete)
       if ( !autoComplete ) {
-         //TODO Consolidate into one call to selector?
          if ( !selector.hasMatches() ) selector.clearList();
-         selector.reloaded();
       }
       // For auto completion on TAB
       else if ( selector.hasMatches() ) {
          lastCompletedValue = completedValue;
          searchField.setText(completedValue);
-         selector.reloaded();
       }
       else { 
          searchField.setText(lastCompletedValue);
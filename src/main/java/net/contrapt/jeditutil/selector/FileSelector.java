@@ -2,8 +2,12 @@ package net.contrapt.jeditutil.selector;
 
 import net.contrapt.jeditutil.model.ProjectCache;
 import net.contrapt.jeditutil.model.ProjectManager;
+import javax.swing.SwingUtilities;
 import java.io.File;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Allow selection of project files
@@ -27,7 +31,53 @@ public class FileSelector extends UtilSelector<ProjectCache, File> {
    }
 
    public Map<String, File> loadValueMap() {
-      return cache.getFiles();
+      return streamValueMap(null);
+   }
+
+   /**
+   * Pass the files on as they are found when the project is being scanned
+   */
+   public Map<String, File> streamValueMap(final ValueStream<File> stream) {
+      final AtomicReference<String> progress = new AtomicReference<String>();
+      return cache.getFiles(new ProjectCache.FileScanListener() {
+         // Only the latest progress is shown; updates that come before the last one is shown replace it
+         public void scanProgress(int directories, int files) {
+            String text = "...Scanning " + cache.getProject().getName() + ": " + files + " files in " + directories + " directories...";
+            if ( progress.getAndSet(text) != null ) return;
+            SwingUtilities.invokeLater(new Runnable() {
+               public void run() {
+                  setStatusText(progress.getAndSet(null), false);
+               }
+            });
+         }
+
+         public void filesScanned(final File dir, final Collection<String> names) {
+            if ( stream == null ) return;
+            // Key the files on the loading thread so the scanning threads only pass the names on
+            stream.add(new Batch<File>() {
+               public void addTo(Map<String, File> values) {
+                  for ( String name : names ) {
+                     File file = new File(dir, name);
+                     values.put(cache.createFileKey(file), file);
+                  }
+               }
+            });
+         }
+      });
+   }
+
+   /**
+   * Use the project's trigram index, if it has one, to find the files that could match
+   */
+   protected int[] getCandidates(Map<String, File> files, List<String> texts) {
+      return cache.findCandidates(files, texts);
+   }
+
+   /**
+   * Projects can have too many files to list; recently opened ones are shown instead
+   */
+   public boolean showFullList() {
+      return false;
    }
 
    public String getDefault() {
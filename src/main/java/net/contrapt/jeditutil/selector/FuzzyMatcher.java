@@ -0,0 +1,171 @@
+package net.contrapt.jeditutil.selector;
+
+/**
+* Scores keys by how well a query matches them as a subsequence; matches at the start of words, path
+* segments and camel case humps and runs of consecutive characters score higher, gaps lower.  Scoring
+* doesn't allocate so it can run over every key on each keystroke, and only the best matches are ranked
+*/
+class FuzzyMatcher {
+
+   /** The score of a key the query isn't a subsequence of */
+   static final int NO_MATCH = Integer.MIN_VALUE;
+
+   private static final int SCORE_MATCH = 16;
+   private static final int GAP_START = -3;
+   private static final int GAP_EXTENSION = -1;
+   private static final int BONUS_PATH = 9;
+   private static final int BONUS_BOUNDARY = 8;
+   private static final int BONUS_CAMEL = 7;
+   private static final int BONUS_CONSECUTIVE = 4;
+   private static final int FIRST_CHAR_MULTIPLIER = 2;
+
+   private final char[] query;
+
+   private final boolean caseSensitive;
+
+   /**
+   * @param filterString The query; '*' is ignored since any characters can come between those matched anyway
+   * @param caseSensitive Whether case has to match
+   */
+   FuzzyMatcher(String filterString, boolean caseSensitive) {
+      this.caseSensitive = caseSensitive;
+      StringBuilder buf = new StringBuilder(filterString.length());
+      for ( char c : filterString.toCharArray() ) {
+         if ( c != '*' ) buf.append(caseSensitive ? c : Character.toUpperCase(c));
+      }
+      query = buf.toString().toCharArray();
+   }
+
+   /**
+   * Return the score of the given key or NO_MATCH.  The first occurrence of the whole query is found
+   * going forward, then shortened by going backward from its end, and the characters in that window are scored
+   */
+   int score(String key) {
+      if ( query.length == 0 ) return 0;
+      int length = key.length();
+      int q = 0;
+      int end = -1;
+      for ( int i=0; i<length; i++ ) {
+         if ( matches(key.charAt(i), query[q]) && ++q == query.length ) {
+            end = i;
+            break;
+         }
+      }
+      if ( end < 0 ) return NO_MATCH;
+      int start = end;
+      q = query.length - 1;
+      for ( int i=end; i>=0; i-- ) {
+         if ( matches(key.charAt(i), query[q]) && --q < 0 ) {
+            start = i;
+            break;
+         }
+      }
+      int score = 0;
+      int last = -1;
+      int runBonus = 0;
+      q = 0;
+      for ( int i=start; i<=end && q<query.length; i++ ) {
+         if ( !matches(key.charAt(i), query[q]) ) continue;
+         int bonus = getBonus(key, i);
+         if ( last >= 0 && i == last + 1 ) {
+            // A run keeps the bonus of the boundary it started on
+            runBonus = Math.max(runBonus, Math.max(bonus, BONUS_CONSECUTIVE));
+            bonus = runBonus;
+         }
+         else {
+            if ( last >= 0 ) score += GAP_START + GAP_EXTENSION * (i - last - 2);
+            runBonus = bonus;
+         }
+         score += SCORE_MATCH + ( q == 0 ? bonus * FIRST_CHAR_MULTIPLIER : bonus );
+         last = i;
+         q++;
+      }
+      return score;
+   }
+
+   private boolean matches(char c, char queryChar) {
+      return c == queryChar || ( !caseSensitive && Character.toUpperCase(c) == queryChar );
+   }
+
+   /**
+   * The bonus for matching the character at the given position given what comes before it
+   */
+   private static int getBonus(String key, int ndx) {
+      if ( ndx == 0 ) return BONUS_BOUNDARY;
+      char prev = key.charAt(ndx - 1);
+      char c = key.charAt(ndx);
+      if ( prev == '/' || prev == '\\' ) return BONUS_PATH;
+      if ( !Character.isLetterOrDigit(c) ) return 0;
+      if ( !Character.isLetterOrDigit(prev) ) return BONUS_BOUNDARY;
+      if ( Character.isLowerCase(prev) && Character.isUpperCase(c) ) return BONUS_CAMEL;
+      if ( !Character.isDigit(prev) && Character.isDigit(c) ) return BONUS_CAMEL;
+      return 0;
+   }
+
+   /**
+   * Put the best of the scored matches in the ranked array, best first; a bounded min heap of positions
+   * keeps only as many as fit in it, so only those are ever sorted.  Matches are in key order so of equal
+   * scores the earlier key ranks higher
+   *
+   * @param matches Indexes of the matching keys in key order
+   * @param scores The score of each match
+   * @param count The number of matches
+   * @param ranked Receives the indexes of the best matches
+   * @return The number of ranked matches
+   */
+   static int rank(int[] matches, int[] scores, int count, int[] ranked) {
+      int limit = Math.min(count, ranked.length);
+      if ( limit == 0 ) return 0;
+      int[] heap = new int[limit];
+      int size = 0;
+      for ( int p=0; p<count; p++ ) {
+         if ( size < limit ) {
+            heap[size] = p;
+            siftUp(heap, scores, size++);
+         }
+         else if ( scores[p] > scores[heap[0]] ) {
+            heap[0] = p;
+            siftDown(heap, scores, 0, size);
+         }
+      }
+      // Take the worst off the top, filling in from the end
+      while ( size > 0 ) {
+         ranked[size - 1] = matches[heap[0]];
+         heap[0] = heap[--size];
+         siftDown(heap, scores, 0, size);
+      }
+      return limit;
+   }
+
+   /**
+   * Whether the match at position a ranks below the one at position b
+   */
+   private static boolean isWorse(int[] scores, int a, int b) {
+      return scores[a] < scores[b] || ( scores[a] == scores[b] && a > b );
+   }
+
+   private static void siftUp(int[] heap, int[] scores, int ndx) {
+      int p = heap[ndx];
+      while ( ndx > 0 ) {
+         int parent = (ndx - 1) >>> 1;
+         if ( !isWorse(scores, p, heap[parent]) ) break;
+         heap[ndx] = heap[parent];
+         ndx = parent;
+      }
+      heap[ndx] = p;
+   }
+
+   private static void siftDown(int[] heap, int[] scores, int ndx, int size) {
+      int p = heap[ndx];
+      int half = size >>> 1;
+      while ( ndx < half ) {
+         int child = 2 * ndx + 1;
+         if ( child + 1 < size && isWorse(scores, heap[child + 1], heap[child]) ) child++;
+         if ( !isWorse(scores, heap[child], p) ) break;
+         heap[ndx] = heap[child];
+         ndx = child;
+      }
+      heap[ndx] = p;
+   }
+
+}
@@ -0,0 +1,184 @@
+package net.contrapt.jeditutil.selector;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+* Matches selector keys against a filter; big lists are split into chunks which are matched in parallel.
+* Each chunk writes the indexes of its matches over the start of its own range of the output array and the
+* chunks are then joined in order, moving the matches together and combining their common prefixes
+*/
+class KeyFilter extends RecursiveTask<KeyFilter.Result> {
+
+   private static final int CHUNK_SIZE = 8192;
+
+   /** Check for cancellation every 1024 keys */
+   private static final int CANCEL_CHECK = 1023;
+
+   private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+   private final Filter filter;
+
+   private final int from;
+
+   private final int to;
+
+   private KeyFilter(Filter filter, int from, int to) {
+      this.filter = filter;
+      this.from = from;
+      this.to = to;
+   }
+
+   /**
+   * A filter matching keys against a regex
+   *
+   * @param keys The keys, used for the common prefix
+   * @param matchKeys The normalized keys to match against
+   * @param regex The filter as a regex
+   * @param prefix The normalized filter string, keys starting with it always match
+   */
+   static Filter forPattern(String[] keys, String[] matchKeys, Pattern regex, String prefix) {
+      return new Filter(keys, matchKeys, regex, prefix, null);
+   }
+
+   /**
+   * A filter scoring keys with the given fuzzy matcher, which does its own case folding
+   */
+   static Filter forFuzzy(String[] keys, FuzzyMatcher fuzzy) {
+      return new Filter(keys, keys, null, null, fuzzy);
+   }
+
+   @Override
+   protected Result compute() {
+      if ( to - from <= CHUNK_SIZE ) return filter.match(from, to);
+      int mid = (from + to) >>> 1;
+      KeyFilter left = new KeyFilter(filter, from, mid);
+      KeyFilter right = new KeyFilter(filter, mid, to);
+      right.fork();
+      Result leftResult = left.compute();
+      return filter.join(leftResult, right.join());
+   }
+
+   /**
+   * What to match and where to put the matches
+   */
+   static class Filter {
+
+      private final String[] keys;
+      private final String[] matchKeys;
+      private final Pattern regex;
+      private final String prefix;
+      private final FuzzyMatcher fuzzy;
+      private int[] candidates;
+      private int[] out;
+      private int[] scores;
+      private ValueSelector.Cancellation cancellation;
+      private volatile boolean cancelled = false;
+
+      private Filter(String[] keys, String[] matchKeys, Pattern regex, String prefix, FuzzyMatcher fuzzy) {
+         this.keys = keys;
+         this.matchKeys = matchKeys;
+         this.regex = regex;
+         this.prefix = prefix;
+         this.fuzzy = fuzzy;
+      }
+
+      /**
+      * Match the candidate keys, in parallel if there are at least threshold of them
+      *
+      * @param candidates Indexes of the keys to match, or null to match all of them
+      * @param count The number of candidates
+      * @param out Receives the indexes of the matching keys in order
+      * @param scores Receives the score of each match alongside it in out; only used by a fuzzy filter
+      * @param threshold The number of candidates at which to go parallel
+      * @param cancellation Checked every so often, may be null
+      * @return The matches or null if the filter was cancelled
+      */
+      Result run(int[] candidates, int count, int[] out, int[] scores, int threshold, ValueSelector.Cancellation cancellation) {
+         this.candidates = candidates;
+         this.out = out;
+         this.scores = scores;
+         this.cancellation = cancellation;
+         Result result = ( count < threshold ) ? match(0, count) : pool.invoke(new KeyFilter(this, 0, count));
+         return isCancelled() ? null : result;
+      }
+
+      boolean isCancelled() {
+         if ( !cancelled && cancellation != null && cancellation.isCancelled() ) cancelled = true;
+         return cancelled;
+      }
+
+      /**
+      * Match the given range of candidates, writing the matches from the start of the range
+      */
+      Result match(int from, int to) {
+         Matcher matcher = ( regex == null ) ? null : regex.matcher("");
+         int count = 0;
+         int first = -1;
+         int commonLength = 0;
+         for ( int c=from; c<to; c++ ) {
+            if ( (c & CANCEL_CHECK) == 0 && isCancelled() ) break;
+            int ndx = ( candidates == null ) ? c : candidates[c];
+            String value = matchKeys[ndx];
+            if ( fuzzy != null ) {
+               int score = fuzzy.score(value);
+               if ( score == FuzzyMatcher.NO_MATCH ) continue;
+               scores[from + count] = score;
+            }
+            else if ( !value.startsWith(prefix) && !matcher.reset(value).matches() ) continue;
+            if ( first < 0 ) {
+               first = ndx;
+               commonLength = keys[ndx].length();
+            }
+            else commonLength = getCommonLength(keys[first], keys[ndx], commonLength);
+            out[from + count++] = ndx;
+         }
+         return new Result(from, count, first, commonLength);
+      }
+
+      /**
+      * Join two adjacent results, moving the right matches up against the left ones
+      */
+      Result join(Result left, Result right) {
+         if ( right.count == 0 ) return left;
+         System.arraycopy(out, right.start, out, left.start + left.count, right.count);
+         if ( scores != null ) System.arraycopy(scores, right.start, scores, left.start + left.count, right.count);
+         if ( left.count == 0 ) return new Result(left.start, right.count, right.first, right.commonLength);
+         int commonLength = Math.min(left.commonLength, right.commonLength);
+         commonLength = getCommonLength(keys[left.first], keys[right.first], commonLength);
+         return new Result(left.start, left.count + right.count, left.first, commonLength);
+      }
+   }
+
+   /**
+   * Return the length of the common prefix of the two given strings, no longer than the given length
+   */
+   static int getCommonLength(String value1, String value2, int length) {
+      if ( value2.length() < length ) length = value2.length();
+      int ndx = 0;
+      for ( ; ndx<length; ndx++ ) if ( value1.charAt(ndx) != value2.charAt(ndx) ) break;
+      return ndx;
+   }
+
+   /**
+   * The matches of a range of candidates: how many there are starting where in the output, the index of the
+   * first matching key and the length of the prefix common to all the matching keys
+   */
+   static class Result {
+
+      final int start;
+      final int count;
+      final int first;
+      final int commonLength;
+
+      Result(int start, int count, int first, int commonLength) {
+         this.start = start;
+         this.count = count;
+         this.first = first;
+         this.commonLength = commonLength;
+      }
+   }
+
+}
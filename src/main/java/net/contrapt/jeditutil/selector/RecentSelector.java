@@ -36,6 +36,13 @@ public class RecentSelector extends UtilSelector<Object, BufferHistory.Entry> {
       return defaultValue;
    }
 
+   /**
+    * The history only changes when buffers are closed
+    */
+   public boolean isCached() {
+      return true;
+   }
+
    private String regexFileSeparator() {
       return (File.separator.equals("\\")) ? "\\\\" : File.separator;
    }
@@ -1,6 +1,10 @@
 package net.contrapt.jeditutil.selector;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.*;
 import javax.swing.event.*;
 import java.awt.*;
@@ -27,12 +31,23 @@ public class ValueSelectionDialog<P,V> extends JDialog {
    private JList valueList;
    private JToolBar toolBar;
    private JPopupMenu popupMenu;
-   private Thread loader;
+   private volatile Thread loader;
+   /** Whether some of the values being loaded can already be filtered */
+   private volatile boolean batchLoaded;
    private Dimension preferredSize;
    private Point preferredLocation;
 	private Integer preferredSplit;
    /** Actions that shouldn't close the dialog */
    private Set<String> noCloseActions = new HashSet<String>();
+   /** Filters are worked out on a background thread; each new filter cancels the one in progress */
+   private static final ExecutorService filterWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+         Thread thread = new Thread(runnable, "ValueSelectionFilter");
+         thread.setDaemon(true);
+         return thread;
+      }
+   });
+   private final AtomicInteger filterGeneration = new AtomicInteger();
 
 
    //
@@ -237,8 +252,11 @@ public class ValueSelectionDialog<P,V> extends JDialog {
       }
       // Enter was hit in search field
       else {
-         filterList(true);
-         if ( selector.setFinalSelection() ) closeDialog();
+         filterList(true, new Runnable() {
+            public void run() {
+               if ( selector.setFinalSelection() ) closeDialog();
+            }
+         });
       }
    }
 
@@ -247,6 +265,7 @@ public class ValueSelectionDialog<P,V> extends JDialog {
    */
    private void closeDialog() {
       if ( loader != null ) loader.interrupt();
+      filterGeneration.incrementAndGet();
       preferredSize = getSize(preferredSize);
       preferredLocation = getLocation(preferredLocation);
 		preferredSplit = (splitPane==null) ? null : splitPane.getDividerLocation();
@@ -260,24 +279,80 @@ public class ValueSelectionDialog<P,V> extends JDialog {
    * Filter the value list using the current value of the text field
    */
    private void filterList(boolean autoComplete) {
-      if ( loader != null ) return;
-      String filterString = searchField.getText();
-      String completedValue = selector.filterList(filterString);
+      filterList(autoComplete, null);
+   }
+
+   /**
+   * Filter the value list in the background using the current value of the text field; a newer
+   * filter cancels this one.  When it's done the list is updated in one go and the given
+   * continuation, if any, is run on the event thread
+   */
+   private void filterList(final boolean autoComplete, final Runnable then) {
+      if ( loader != null && !batchLoaded ) return;
+      final String filterString = searchField.getText();
+      final int generation = filterGeneration.incrementAndGet();
+      final ValueSelector.Cancellation cancellation = new ValueSelector.Cancellation() {
+         public boolean isCancelled() {
+            return generation != filterGeneration.get();
+         }
+      };
+      selector.setStatusText("...Filtering...", false);
+      filterWorker.execute(new Runnable() {
+         public void run() {
+            if ( cancellation.isCancelled() ) return;
+            ValueSelector.Filtered computed;
+            try {
+               computed = selector.computeFilter(filterString, cancellation);
+            }
+            catch (RuntimeException e) {
+               // Most likely a filter that isn't a valid regex yet
+               computed = null;
+               showStatus(cancellation, "Can't filter on "+filterString);
+            }
+            if ( computed == null ) return;
+            final ValueSelector.Filtered filtered = computed;
+            SwingUtilities.invokeLater(new Runnable() {
+               public void run() {
+                  if ( cancellation.isCancelled() ) return;
+                  showFiltered(filtered, autoComplete);
+                  if ( then != null ) then.run();
+               }
+            });
+         }
+      });
+   }
+
+   /**
+   * Show a status message from the filter thread unless the filter has been replaced
+   */
+   private void showStatus(final ValueSelector.Cancellation cancellation, final String text) {
+      SwingUtilities.invokeLater(new Runnable() {
+         public void run() {
+            if ( !cancellation.isCancelled() ) selector.setStatusText(text, false);
+         }
+      });
+   }
+
+   /**
+   * Show the result of a filter in the list
+   */
+   private void showFiltered(ValueSelector.Filtered filtered, boolean autoComplete) {
+      String completedValue = selector.applyFilter(filtered);
       // For search as you type (not auto complete)
       if ( !autoComplete ) {
-         //TODO Consolidate into one call to selector?
          if ( !selector.hasMatches() ) selector.clearList();
-         selector.reloaded();
       }
       // For auto completion on TAB
       else if ( selector.hasMatches() ) {
          lastCompletedValue = completedValue;
          searchField.setText(completedValue);
-         selector.reloaded();
       }
       else { 
          searchField.setText(lastCompletedValue);
       }
+      // A fixed row size means the list only measures the rows it shows
+      String longestKey = selector.getLongestKey();
+      if ( longestKey != null ) valueList.setPrototypeCellValue(longestKey);
       setFilteredStatus();
    }
    
@@ -286,18 +361,33 @@ public class ValueSelectionDialog<P,V> extends JDialog {
    */
    private void reloadList() {
       if ( loader != null ) return;
+      batchLoaded = false;
       loader = new Thread() {
          public void run() {
             try {
 					selector.setStatusText("...Loading...", false);
-               selector.reloadList();
+               selector.reloadList(new Runnable() {
+                  public void run() {
+                     SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                           // Show what has loaded so far
+                           batchLoaded = true;
+                           filterList(false);
+                        }
+                     });
+                  }
+               });
             }
             catch (Exception e) {
             }
             finally {
                loader = null;
-					selector.setStatusText("Loaded "+selector.getSize(), false);
-               filterList(false);
+               SwingUtilities.invokeLater(new Runnable() {
+                  public void run() {
+                     selector.setStatusText("Loaded "+selector.getSize(), false);
+                     filterList(false);
+                  }
+               });
             }
          }
       };
@@ -314,12 +404,23 @@ public class ValueSelectionDialog<P,V> extends JDialog {
       reloadList();
    }
 
+   /**
+   * Switch the selector between pattern and fuzzy matching and refilter
+   */
+   private void toggleMatchMode() {
+      boolean fuzzy = ( selector.getMatchMode() == ValueSelector.MatchMode.FUZZY );
+      selector.setMatchMode(fuzzy ? ValueSelector.MatchMode.PATTERN : ValueSelector.MatchMode.FUZZY);
+      filterList(false);
+   }
+
    /**
    * Set the status bar to indicate filtered size/total size of value
    * list
    */
    private void setFilteredStatus() {
-      selector.setStatusText("", true);
+      boolean fuzzy = ( selector.getMatchMode() == ValueSelector.MatchMode.FUZZY );
+      String text = ( loader != null ) ? "...Loading..." : "";
+      selector.setStatusText(fuzzy ? "Fuzzy "+text : text, true);
    }
 
    //
@@ -402,6 +503,7 @@ public class ValueSelectionDialog<P,V> extends JDialog {
    *  - VK_ENTER selects/filters the current value; 
    *  - ESC cancels the dialog; 
    *  - VK_TAB filters the list
+   *  - Ctrl-F switches between pattern and fuzzy matching
    * For other keys, ask the selector if they should trigger selection.
    * This allows the selector to record the key stroke and take different actions
    * on the selected value
@@ -415,6 +517,11 @@ public class ValueSelectionDialog<P,V> extends JDialog {
       */
       public void keyPressed(KeyEvent argEvent) {
          previousText = ( searchField.getText()==null ) ? "" : searchField.getText();
+         if ( argEvent.getKeyCode() == KeyEvent.VK_F && argEvent.isControlDown() ) {
+            toggleMatchMode();
+            argEvent.consume();
+            return;
+         }
          // Translate key code if necessary
          int iKeyCode = translateKeyCode(argEvent);
          switch (iKeyCode) {
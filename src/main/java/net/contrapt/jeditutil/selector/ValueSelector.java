@@ -12,10 +12,13 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.JList;
 import javax.swing.JComponent;
 import javax.swing.AbstractListModel;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import javax.swing.text.Document;
 import javax.swing.text.PlainDocument;
 import javax.swing.text.BadLocationException;
+import net.contrapt.jeditutil.model.FrecencyData;
 
 /**
 * The data model for the value selection dialog; implement this class to provide
@@ -34,34 +37,73 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
    private static Map<Class,Dimension> preferredSizes = new HashMap<Class,Dimension>();
    private static Map<Class,Point> preferredLocations = new HashMap<Class,Point>();
    private static Map<Class,Integer> preferredSplits = new HashMap<Class,Integer>();
+   private static Map<Class,MatchMode> preferredMatchModes = new HashMap<Class,MatchMode>();
+
+   /** Loaded values and their keys kept between dialogs for selector classes that cache them */
+   private static Map<Class,Keys> cachedKeys = new ConcurrentHashMap<Class,Keys>();
+
+   /** Counts invalidations so values loaded before one aren't cached after it */
+   private static final AtomicInteger cacheGeneration = new AtomicInteger();
 
    /** The string that was selected */
    protected String finalSelection;
 
    /** Map of values to show in the list */
-   protected Map<String, V> valueMap;
+   protected volatile Map<String, V> valueMap;
 
    /** The currently selected index in the list */
    private int currentIndex = -1;
 
-   /** The filtered list of values */
-   private List<String> filteredList;
+   /** The keys the list shows, null if it shows nothing */
+   private Keys shownKeys;
+
+   /** Indexes of the keys the list shows in order, or null to show all of them */
+   private int[] shown;
+
+   /** The number of keys the list shows */
+   private int shownCount = 0;
 
    /** Whether or not the last filter had any matches */
    private boolean hasMatches = false;
 
+   /** The last filter applied to the list, null if the list wasn't filtered */
+   private volatile Filtered lastFiltered;
+
+   /** The keys of the value map and the same keys normalized for matching; built once per load of the map */
+   private volatile Keys keys;
+
+   /** The cache generation when the value map was loaded */
+   private int loadGeneration;
+
+   /** The least time between showing batches of values while they are loading */
+   private static final long BATCH_INTERVAL = 250;
+
+   /** Runs streaming loads so the loading thread is free to show their batches */
+   private static final ExecutorService streamer = Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+         Thread thread = new Thread(runnable, "ValueSelectorStreamer");
+         thread.setDaemon(true);
+         return thread;
+      }
+   });
+
+   /** Characters that change the meaning of the filter before them, so appending them doesn't narrow it */
+   private static final String WIDENING_CHARS = "[]{}|?+^$";
+
 	/** Document to model the status bar text */
 	private Document statusDocument;
 
-	/** Recent choices -- need to be stored by parent value? */
-	//private static List<String> recentChoices = new ArrayList<String>();
+	/** How often and recently values were chosen from each selector class, null if that isn't kept */
+	private static volatile FrecencyData frecencyData;
+
+   /** Scales the log of the frecency of a recent fuzzy match to add to its score */
+   private static final int RECENT_BOOST = 16;
 
    //
    // Constructors
    //
 
    protected ValueSelector() {
-      filteredList = new ArrayList<String>();
 		statusDocument = new PlainDocument();
    }
 
@@ -88,7 +130,7 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
    * Return the key of the currently selected list item if any
    */
    protected String getCurrentKey() {
-      return ( currentIndex >=0 && currentIndex < filteredList.size() ) ? filteredList.get(currentIndex) : null;
+      return ( currentIndex >=0 && currentIndex < shownCount ) ? (String)getElementAt(currentIndex) : null;
    }
 
    /**
@@ -100,15 +142,27 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
 
    /**
    * Remove the currently selected item from the list -- that is, remove it
-   * from the data model, both full list and filtered list
+   * from the data model, both full list and filtered list.  The value map is replaced by a copy
+   * without it, since the loaded map may be read only or shared with the cache
    */
    protected V removeCurrentValue() {
       V value = null;
-      if ( currentIndex >= 0 && currentIndex < filteredList.size() ) {
-         String key = filteredList.remove(currentIndex);
-         value = getValueMap().remove(key);
+      if ( currentIndex >= 0 && currentIndex < shownCount ) {
+         int removed = currentIndex;
+         String key = getCurrentKey();
+         Map<String, V> values = new LinkedHashMap<String, V>(getValueMap());
+         value = values.remove(key);
+         if ( isCached() ) invalidate(this.getClass());
+         setValueMap(values, -1);
+         // The list still refers to the old keys, which don't change
+         int[] remaining = new int[shownCount - 1];
+         for ( int i=0, j=0; i<shownCount; i++ ) {
+            if ( i != removed ) remaining[j++] = ( shown == null ) ? i : shown[i];
+         }
+         shown = remaining;
+         shownCount--;
+         fireIntervalRemoved(this, removed, removed);
       }
-      reloaded();
       return value;
    }
    
@@ -126,6 +180,19 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
    */
    public abstract Map<String, V> loadValueMap();
 
+   /**
+   * Load the values to be selected, passing them to the given stream in batches as they are found so
+   * the dialog can show them before they have all loaded.  Override this as well as
+   * <code>loadValueMap</code> if loading takes a while; by default the values are just loaded.  It runs
+   * on a thread of its own while the loading thread shows the batches
+   *
+   * @param stream Receives the batches; it can be called from any thread
+   * @return All the values, which replace the batches
+   */
+   public Map<String, V> streamValueMap(ValueStream<V> stream) {
+      return loadValueMap();
+   }
+
    /**
    * The default search value
    *
@@ -181,6 +248,74 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
    */
    public abstract boolean isCaseSensitive();
 
+	/**
+	* The number of keys at which filtering is split across the available processors.  Override to
+	* change it; defaults to 50000
+	*/
+	public int getParallelThreshold() {
+		return 50000;
+	}
+
+	/**
+	* How the filter string is matched when the user hasn't chosen; override to return
+	* <code>MatchMode.FUZZY</code> for lists that are best searched that way.  Defaults to pattern matching
+	*/
+	public MatchMode getDefaultMatchMode() {
+		return MatchMode.PATTERN;
+	}
+
+	/**
+	* The most fuzzy matches shown in the list, best first.  Override to change it; defaults to 1000
+	*/
+	public int getFuzzyLimit() {
+		return 1000;
+	}
+
+	/**
+	* Override to look up the keys that could match a pattern filter in an index rather than checking
+	* every key.  Defaults to null, which checks them all
+	*
+	* @param values The value map the keys are from
+	* @param texts Text that every matching key contains, ignoring case
+	* @return The indexes in key order, increasing, of at least all the keys containing the text; or null
+	*/
+	protected int[] getCandidates(Map<String, V> values, List<String> texts) {
+		return null;
+	}
+
+	/**
+	* Override to return true to keep the loaded values between dialogs; they are loaded again once
+	* <code>invalidate</code> is called for the selector class.  Defaults to false
+	*/
+	public boolean isCached() {
+		return false;
+	}
+
+	/**
+	* Override to check whether cached values are still current when the selector has no message
+	* for every change; they are loaded again if not.  Defaults to true
+	*/
+	protected boolean isCacheCurrent(Map<String, V> cached) {
+		return true;
+	}
+
+	/**
+	* Forget the cached values of the given selector class, for instance when whatever they were
+	* loaded from changes
+	*/
+	public static void invalidate(Class<? extends ValueSelector> selectorClass) {
+		cacheGeneration.incrementAndGet();
+		cachedKeys.remove(selectorClass);
+	}
+
+	/**
+	* Set where the values chosen from selectors are counted; recently and often chosen values are shown
+	* when nothing is typed and ahead of other matches
+	*/
+	public static void setFrecencyData(FrecencyData data) {
+		frecencyData = data;
+	}
+
 	/**
 	* Should the entire list view be populated when nothing is typed in search box?  For large
 	* lists you might want to override to return false.  Defaults to true
@@ -248,28 +383,108 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
    }
 
    /**
-   * Force a reload of the value map
+   * Force a reload of the value map; a cached selector uses its cached values if they are still valid
    */
    final void reloadValueMap() { 
-      valueMap = loadValueMap(); 
+      reloadValueMap(null);
+   }
+
+   /**
+   * Reload the value map; if batchLoaded is given the values are streamed and it is run each time
+   * a batch of them has been made the value map
+   */
+   @SuppressWarnings("unchecked")
+   private void reloadValueMap(Runnable batchLoaded) {
+      Keys cached = isCached() ? cachedKeys.get(this.getClass()) : null;
+      if ( cached != null && !isCacheCurrent((Map<String, V>)cached.values) ) {
+         invalidate(this.getClass());
+         cached = null;
+      }
+      if ( cached != null ) {
+         valueMap = (Map<String, V>)cached.values;
+         setKeys(cached);
+         return;
+      }
+      int generation = cacheGeneration.get();
+      Map<String, V> loaded = ( batchLoaded == null ) ? loadValueMap() : streamValues(batchLoaded);
+      if ( loaded != null ) setValueMap(loaded, generation);
+   }
+
+   /**
+   * Stream the values on another thread and show what has arrived so far every so often.  The
+   * streaming threads only queue their batches; they're merged and the value map made from them here
+   *
+   * @return All the values, or null if this thread was interrupted
+   */
+   private Map<String, V> streamValues(Runnable batchLoaded) {
+      final Batches batches = new Batches();
+      Future<Map<String, V>> streamed = streamer.submit(new Callable<Map<String, V>>() {
+         public Map<String, V> call() {
+            return streamValueMap(batches);
+         }
+      });
+      Map<String, V> partial = new TreeMap<String, V>();
+      try {
+         while ( true ) {
+            try {
+               return streamed.get(BATCH_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e) {
+               // Only the complete values can be cached
+               if ( batches.drainTo(partial) ) {
+                  setValueMap(new TreeMap<String, V>(partial), -1);
+                  batchLoaded.run();
+               }
+            }
+         }
+      }
+      catch (InterruptedException e) {
+         streamed.cancel(true);
+         Thread.currentThread().interrupt();
+         return null;
+      }
+      catch (ExecutionException e) {
+         if ( e.getCause() instanceof RuntimeException ) throw (RuntimeException)e.getCause();
+         throw new RuntimeException(e.getCause());
+      }
+      finally {
+         batches.finish();
+      }
+   }
+
+   /**
+   * Make the given values the value map; its keys can be cached if nothing was invalidated since the
+   * given generation, -1 if they never can
+   */
+   private synchronized void setValueMap(Map<String, V> values, int generation) {
+      valueMap = values;
+      loadGeneration = generation;
+      setKeys(null);
    }
 
    /**
    * Clear the filtered list and reload with the unfiltered list
    */
    final void clearList() {
-      filteredList.clear();
+      lastFiltered = null;
+      show(null, null, 0);
    }
 
    /**
-   * Reload the entire list
+   * Reload the value map and its keys; this can be done off the event thread, the list keeps
+   * showing what it was until the next filter is applied
    */
    final void reloadList() {
-      filteredList.clear();
-      reloaded();
-      reloadValueMap();
-      filteredList.addAll(getValueKeys());
-      reloaded();
+      reloadList(null);
+   }
+
+   /**
+   * Reload the value map and its keys, streaming the values if the selector can; the given callback
+   * is run on the loading thread each time a batch of values can be filtered
+   */
+   final void reloadList(Runnable batchLoaded) {
+      reloadValueMap(batchLoaded);
+      getKeys();
    }
 
    /**
@@ -280,40 +495,187 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
    * @return The common string for values that matched the filter
    */
    final String filterList(String filterString) {
-      String completedString = filterString;
-      hasMatches = false;
+      return applyFilter(computeFilter(filterString, null));
+   }
+
+   /**
+   * Work out which values match the given filter string without changing the list; this can be
+   * done off the event thread and the result applied to the list later with <code>applyFilter</code>
+   *
+   * @param filterString The string the user entered to filter on
+   * @param cancellation Checked during the filter, may be null
+   * @return The filtered values or null if the filter was cancelled
+   */
+   final Filtered computeFilter(String filterString, Cancellation cancellation) {
       // Wildcard reloads entire list (if nothing is entered, subclasses can choose to show entire list or not
       if ( filterString == null || filterString.equals("") || filterString.equals("*") ) {
-         filteredList.clear();
-			if ( showFullList() ) {
-				filteredList.addAll(getValueMap().keySet());
-				hasMatches = true;
-			}
-			//else {
-			//	filteredList.addAll(recentChoices);
-			//	hasMatches = ( recentChoices.size() > 0 );
-			//}
-         return completedString;
+         return getRecentFiltered(filterString);
       }
-      // Filter the list on anything else
-      if ( !isCaseSensitive() ) filterString = filterString.toUpperCase();
-      completedString=null;
-      String regexString = convertToRegex(filterString);
-      Pattern regex = Pattern.compile(regexString);
-      for ( String value : getValueKeys() ) {
-         String cValue = value;
-         if ( !isCaseSensitive() ) cValue = value.toUpperCase();
-         boolean match = false;
-         if ( regex.matcher(cValue).matches() ) match=true;
-         else if ( cValue.startsWith(filterString) ) match=true;
-         if ( match ) {
-            if ( !hasMatches ) filteredList.clear();
-            completedString = ( completedString==null ) ? value : getCommonString(completedString, value);
-            filteredList.add(value);
-            hasMatches = true;
+      // Filter the list on anything else; if the filter just got longer only the last matches can still match
+      Keys keys = getKeys();
+      MatchMode mode = getMatchMode();
+      Filtered last = lastFiltered;
+      boolean narrowing = isNarrowing(last, filterString, mode) && last.keys == keys;
+      int candidateCount = narrowing ? last.count : keys.keys.length;
+      int[] candidates = narrowing ? last.matches : null;
+      if ( !narrowing && mode == MatchMode.PATTERN ) {
+         int[] indexed = getIndexedCandidates(keys, filterString);
+         if ( indexed != null ) {
+            candidates = indexed;
+            candidateCount = indexed.length;
          }
       }
-      return completedString;
+      int[] matches = new int[candidateCount];
+      if ( mode == MatchMode.FUZZY ) {
+         int[] scores = new int[candidateCount];
+         KeyFilter.Result result = KeyFilter.forFuzzy(keys.keys, new FuzzyMatcher(filterString, isCaseSensitive()))
+               .run(candidates, candidateCount, matches, scores, getParallelThreshold(), cancellation);
+         if ( result == null ) return null;
+         boostRecent(keys, matches, scores, result.count);
+         // The best matches are shown, but all of them are kept to narrow the next filter
+         int[] ranked = new int[Math.min(result.count, getFuzzyLimit())];
+         FuzzyMatcher.rank(matches, scores, result.count, ranked);
+         // Matches needn't share a prefix, so there's nothing to complete
+         String completedString = ( result.count == 0 ) ? null : filterString;
+         return new Filtered(filterString, mode, keys, matches, result.count, ranked, completedString);
+      }
+      String matchString = isCaseSensitive() ? filterString : filterString.toUpperCase();
+      Pattern regex = Pattern.compile(convertToRegex(matchString));
+      KeyFilter.Result result = KeyFilter.forPattern(keys.keys, keys.matchKeys, regex, matchString)
+            .run(candidates, candidateCount, matches, null, getParallelThreshold(), cancellation);
+      if ( result == null ) return null;
+      String completedString = ( result.count == 0 ) ? null : keys.keys[result.first].substring(0, result.commonLength);
+      return new Filtered(filterString, mode, keys, matches, result.count, rankRecent(keys, matches, result.count), completedString);
+   }
+
+   /**
+   * The filter for an empty string: the recently chosen values best first, followed by the rest if the
+   * whole list is shown.  Without recent values the keys needn't be built to show the whole list
+   */
+   private Filtered getRecentFiltered(String filterString) {
+      FrecencyData data = frecencyData;
+      if ( data == null || !data.hasEntries(getClass().getName()) ) {
+         return new Filtered(filterString, null, null, null, 0, null, filterString);
+      }
+      Keys keys = getKeys();
+      Recent recent = keys.getRecent(data, getClass().getName());
+      if ( recent.ranked.length == 0 ) return new Filtered(filterString, null, null, null, 0, null, filterString);
+      int[] ranked = showFullList() ? recent.getRankedWithRest(keys.keys.length) : recent.ranked;
+      return new Filtered(filterString, null, keys, null, ranked.length, ranked, filterString);
+   }
+
+   /**
+   * Return the given pattern matches with the recently chosen ones moved to the front best first,
+   * or null if none of them were chosen recently
+   */
+   private int[] rankRecent(Keys keys, int[] matches, int count) {
+      FrecencyData data = frecencyData;
+      if ( data == null || count == 0 ) return null;
+      Recent recent = keys.getRecent(data, getClass().getName());
+      if ( recent.ranked.length == 0 ) return null;
+      // Mark the recent values that matched and collect the rest, then move the rest up behind them
+      boolean[] hits = new boolean[recent.indexes.length];
+      int[] ranked = new int[count];
+      int rest = 0;
+      for ( int i=0; i<count; i++ ) {
+         int found = recent.find(matches[i]);
+         if ( found >= 0 ) hits[found] = true;
+         else ranked[rest++] = matches[i];
+      }
+      if ( rest == count ) return null;
+      System.arraycopy(ranked, 0, ranked, count-rest, rest);
+      int n = 0;
+      for ( int ndx : recent.ranked ) {
+         if ( hits[recent.find(ndx)] ) ranked[n++] = ndx;
+      }
+      return ranked;
+   }
+
+   /**
+   * Add to the scores of fuzzy matches that were chosen recently; the boost grows slowly with the
+   * frecency so a much better match still ranks higher than a popular one
+   */
+   private void boostRecent(Keys keys, int[] matches, int[] scores, int count) {
+      FrecencyData data = frecencyData;
+      if ( data == null ) return;
+      Recent recent = keys.getRecent(data, getClass().getName());
+      if ( recent.ranked.length == 0 ) return;
+      for ( int i=0; i<count; i++ ) {
+         int found = recent.find(matches[i]);
+         if ( found >= 0 ) scores[i] += (int)Math.round(RECENT_BOOST * Math.log1p(recent.scores[found]));
+      }
+   }
+
+   /**
+   * Show the given filtered values in the list; the caller fires the change
+   *
+   * @return The common string for values that matched the filter
+   */
+   final String applyFilter(Filtered filtered) {
+      // The whole list
+      if ( filtered.keys == null ) {
+         lastFiltered = null;
+         hasMatches = showFullList();
+         if ( hasMatches ) {
+            Keys all = getKeys();
+            show(all, null, all.keys.length);
+         }
+         else show(null, null, 0);
+         return filtered.completedString;
+      }
+      // Recent values for an empty filter, which nothing can narrow
+      if ( filtered.matches == null ) {
+         lastFiltered = null;
+         hasMatches = true;
+         show(filtered.keys, filtered.ranked, filtered.ranked.length);
+         return filtered.completedString;
+      }
+      // The value map may have changed since the filter was computed, but the filter still shows the
+      // keys it was computed from and the next one won't narrow it
+      lastFiltered = filtered;
+      hasMatches = ( filtered.count > 0 );
+      if ( !hasMatches ) return null;
+      if ( filtered.ranked == null ) show(filtered.keys, filtered.matches, filtered.count);
+      else show(filtered.keys, filtered.ranked, filtered.ranked.length);
+      return filtered.completedString;
+   }
+
+   /**
+   * Ask the selector for the keys that could match a pattern filter; only possible if the filter is
+   * made of literal text and wildcards
+   */
+   @SuppressWarnings("unchecked")
+   private int[] getIndexedCandidates(Keys keys, String filterString) {
+      for ( int i=0; i<filterString.length(); i++ ) {
+         char c = filterString.charAt(i);
+         if ( c == '\\' || WIDENING_CHARS.indexOf(c) >= 0 ) return null;
+      }
+      List<String> texts = new ArrayList<String>();
+      for ( String text : filterString.split("[*.]") ) {
+         if ( text.length() > 0 ) texts.add(text);
+      }
+      if ( texts.isEmpty() ) return null;
+      int[] candidates = getCandidates((Map<String, V>)keys.values, texts);
+      // They have to be indexes of the keys
+      if ( candidates == null || (candidates.length > 0 && candidates[candidates.length-1] >= keys.keys.length) ) return null;
+      return candidates;
+   }
+
+   /**
+   * Does the given filter only append ordinary characters to the last one; if so it can only match
+   * a subset of what the last one matched.  Any characters appended to a fuzzy query narrow it
+   */
+   private boolean isNarrowing(Filtered last, String filterString, MatchMode mode) {
+      if ( last == null || last.mode != mode ) return false;
+      String lastFilter = last.filterString;
+      if ( filterString.length() <= lastFilter.length() || !filterString.startsWith(lastFilter) ) return false;
+      if ( mode == MatchMode.FUZZY ) return true;
+      // A '*' after a '.' turns it into '.*'
+      if ( lastFilter.endsWith(".") && filterString.charAt(lastFilter.length()) == '*' ) return false;
+      for ( int i=lastFilter.length(); i<filterString.length(); i++ ) {
+         if ( WIDENING_CHARS.indexOf(filterString.charAt(i)) >= 0 ) return false;
+      }
+      return true;
    }
 
    /**
@@ -327,10 +689,38 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
    * Return the map of selectable values
    */
    final Map<String,V> getValueMap() {
-      if ( valueMap == null ) valueMap = loadValueMap();
+      if ( valueMap == null ) reloadValueMap();
       return valueMap;
    }
 
+   /**
+   * Return the keys of the value map in order, building them and their normalized form the first time
+   * they're needed after the map is loaded
+   */
+   private synchronized Keys getKeys() {
+      if ( keys != null ) return keys;
+      Map<String, V> values = getValueMap();
+      Set<String> valueKeys = values.keySet();
+      String[] newKeys = valueKeys.toArray(new String[valueKeys.size()]);
+      String[] newMatchKeys = newKeys;
+      if ( !isCaseSensitive() ) {
+         newMatchKeys = new String[newKeys.length];
+         for ( int i=0; i<newKeys.length; i++ ) newMatchKeys[i] = newKeys[i].toUpperCase();
+      }
+      keys = new Keys(values, newKeys, newMatchKeys);
+      if ( isCached() && loadGeneration == cacheGeneration.get() ) cachedKeys.put(this.getClass(), keys);
+      return keys;
+   }
+
+   /**
+   * Set the keys when the value map changes, null to build them when next needed; the last matches
+   * refer to the old keys so the next filter can't narrow them
+   */
+   private synchronized void setKeys(Keys newKeys) {
+      keys = newKeys;
+      lastFiltered = null;
+   }
+
    /**
    * Return the set of keys for the value map
    */
@@ -345,8 +735,8 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
    */
    final void setFinalSelection(String selection) { 
       this.finalSelection = selection;
-		//if ( !recentChoices.contains(selection) ) recentChoices.add(0,selection);
-		//if ( recentChoices.size() > 10 ) recentChoices.remove(recentChoices.size()-1);
+      FrecencyData data = frecencyData;
+      if ( data != null && selection != null ) data.recordUse(getClass().getName(), selection, System.currentTimeMillis());
    }
 
    /**
@@ -355,8 +745,8 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
    * @return false if there were more than one choice still in the list, true otherwise
    */
    final boolean setFinalSelection() {
-      if ( filteredList.size() != 1 ) return false;
-      setFinalSelection(filteredList.get(0));
+      if ( shownCount != 1 ) return false;
+      setFinalSelection((String)getElementAt(0));
       return true;
    }
 
@@ -394,6 +784,18 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
       preferredLocations.put(this.getClass(),p);
    }
 
+   /**
+   * How the filter string is matched; the user's last choice for this selector class or else the default
+   */
+   public final MatchMode getMatchMode() {
+      MatchMode mode = preferredMatchModes.get(this.getClass());
+      return ( mode == null ) ? getDefaultMatchMode() : mode;
+   }
+
+   final void setMatchMode(MatchMode mode) {
+      preferredMatchModes.put(this.getClass(), mode);
+   }
+
    final Integer getPreferredSplit() {
       return preferredSplits.get(this.getClass());
    }
@@ -403,24 +805,53 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
    }
 
    /**
-   * Implement the list model
+   * Show the given keys in the list, telling listeners which rows were added, removed or changed
+   * rather than that everything changed
+   *
+   * @param keys The keys, null to show nothing
+   * @param indexes The indexes of the keys to show, null to show all of them
+   * @param count The number of keys to show
+   */
+   private void show(Keys keys, int[] indexes, int count) {
+      int oldCount = shownCount;
+      shownKeys = keys;
+      shown = indexes;
+      shownCount = count;
+      if ( count < oldCount ) fireIntervalRemoved(this, count, oldCount-1);
+      if ( count > oldCount ) fireIntervalAdded(this, oldCount, count-1);
+      int common = Math.min(oldCount, count);
+      if ( common > 0 ) fireContentsChanged(this, 0, common-1);
+   }
+
+   /**
+   * The longest key in the list, which lists can use as a prototype so they don't have to measure
+   * every row; null if the list is empty
+   */
+   final String getLongestKey() {
+      if ( shownKeys == null ) return null;
+      return shownKeys.getLongestKey();
+   }
+
+   /**
+   * Implement the list model; keys are only looked up as the list asks for them
    */
    public Object getElementAt(int index) {
-      return (index>=filteredList.size()) ? null : filteredList.get(index); 
+      if ( index < 0 || index >= shownCount ) return null;
+      return shownKeys.keys[( shown == null ) ? index : shown[index]];
    }
 
    /**
    * Implement list model
    */
    public int getSize() { 
-      return filteredList.size(); 
+      return shownCount; 
    }
 
    /**
-   * Implement list model
+   * Implement list model; tell the list all the rows changed, for instance to repaint them
    */
    public void reloaded() {
-      fireContentsChanged(this, 0, filteredList.size());
+      if ( shownCount > 0 ) fireContentsChanged(this, 0, shownCount-1);
    }
 
    /**
@@ -453,16 +884,6 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
       return buf.toString();
    }
 
-   /**
-   * Return a string containing only the common characters of the two given strings
-   */
-   private String getCommonString(String value1, String value2) {
-      int length = ( value1.length() < value2.length() ) ? value1.length() : value2.length();
-      int ndx = 0;
-      for ( ; ndx<length; ndx++ ) if ( value1.charAt(ndx) != value2.charAt(ndx) ) break;
-      return value1.substring(0, ndx);
-   }
-
 	/**
 	* Do whatever you need to do when the currently selected list item changes; 
 	* some possibilities are update status, show additional info etc.  Current index
@@ -485,6 +906,195 @@ public abstract class ValueSelector<P,V> extends AbstractListModel {
       };
    }
 
+	/**
+	* Ways of matching the filter string against the keys: as a simple pattern where '*' matches anything,
+	* or as a fuzzy subsequence with the best matches first
+	*/
+	public enum MatchMode {
+		PATTERN, FUZZY
+	}
+
+	/**
+	* Receives the values of a selector in batches while they are loading
+	*/
+	public interface ValueStream<V> {
+		void add(Map<String, V> batch);
+
+		/**
+		* Add a batch that only makes its values when the loading thread takes it
+		*/
+		void add(Batch<V> batch);
+	}
+
+	/**
+	* A batch of values that are made on the loading thread rather than by whoever streams them
+	*/
+	public interface Batch<V> {
+		void addTo(Map<String, V> values);
+	}
+
+	/**
+	* Queues streamed batches until the loading thread takes them; adding never waits on the loading thread
+	*/
+	private class Batches implements ValueStream<V> {
+		private final Queue<Batch<V>> queue = new ConcurrentLinkedQueue<Batch<V>>();
+		private volatile boolean finished = false;
+
+		public void add(final Map<String, V> batch) {
+			add(new Batch<V>() {
+				public void addTo(Map<String, V> values) {
+					values.putAll(batch);
+				}
+			});
+		}
+
+		public void add(Batch<V> batch) {
+			if ( !finished ) queue.add(batch);
+		}
+
+		/**
+		* Add the batches queued so far to the given values
+		*
+		* @return Whether there were any
+		*/
+		boolean drainTo(Map<String, V> values) {
+			boolean drained = false;
+			for ( Batch<V> batch = queue.poll(); batch != null; batch = queue.poll() ) {
+				batch.addTo(values);
+				drained = true;
+			}
+			return drained;
+		}
+
+		void finish() {
+			finished = true;
+			queue.clear();
+		}
+	}
+
+	/**
+	* Lets a filter running in the background know it is no longer wanted
+	*/
+	interface Cancellation {
+		boolean isCancelled();
+	}
+
+	/**
+	* The keys of the value map in order and the same keys as they are matched
+	*/
+	static final class Keys {
+		final Map<String, ?> values;
+		final String[] keys;
+		final String[] matchKeys;
+
+		private String longestKey;
+
+		private Recent recent;
+
+		Keys(Map<String, ?> values, String[] keys, String[] matchKeys) {
+			this.values = values;
+			this.keys = keys;
+			this.matchKeys = matchKeys;
+		}
+
+		/**
+		* The recently chosen values among these keys, worked out again whenever another value is chosen
+		* from the selector
+		*/
+		synchronized Recent getRecent(FrecencyData data, String selector) {
+			int version = data.getVersion(selector);
+			if ( recent != null && recent.version == version ) return recent;
+			recent = new Recent(keys, data.getScores(selector, System.currentTimeMillis()), version);
+			return recent;
+		}
+
+		synchronized String getLongestKey() {
+			if ( longestKey != null || keys.length == 0 ) return longestKey;
+			longestKey = keys[0];
+			for ( String key : keys ) if ( key.length() > longestKey.length() ) longestKey = key;
+			return longestKey;
+		}
+	}
+
+	/**
+	* The indexes of the recently chosen keys best first, and in order with their frecency for looking them up
+	*/
+	static final class Recent {
+		final int version;
+		final int[] ranked;
+		final int[] indexes;
+		final double[] scores;
+
+		private int[] rankedWithRest;
+
+		Recent(String[] keys, Map<String, Double> frecency, int version) {
+			this.version = version;
+			List<Integer> found = new ArrayList<Integer>();
+			if ( !frecency.isEmpty() ) {
+				for ( int i=0; i<keys.length; i++ ) if ( frecency.containsKey(keys[i]) ) found.add(i);
+			}
+			indexes = new int[found.size()];
+			scores = new double[found.size()];
+			for ( int i=0; i<indexes.length; i++ ) {
+				indexes[i] = found.get(i);
+				scores[i] = frecency.get(keys[indexes[i]]);
+			}
+			final Map<Integer, Double> byIndex = new HashMap<Integer, Double>();
+			for ( int i=0; i<indexes.length; i++ ) byIndex.put(indexes[i], scores[i]);
+			Collections.sort(found, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return byIndex.get(b).compareTo(byIndex.get(a));
+				}
+			});
+			ranked = new int[found.size()];
+			for ( int i=0; i<ranked.length; i++ ) ranked[i] = found.get(i);
+		}
+
+		/**
+		* The position of the given key index among the recent ones, negative if it isn't recent
+		*/
+		int find(int ndx) {
+			return Arrays.binarySearch(indexes, ndx);
+		}
+
+		/**
+		* The recent keys best first followed by all the others in order
+		*/
+		synchronized int[] getRankedWithRest(int count) {
+			if ( rankedWithRest != null ) return rankedWithRest;
+			int[] all = Arrays.copyOf(ranked, count);
+			int n = ranked.length;
+			for ( int i=0; i<count; i++ ) if ( find(i) < 0 ) all[n++] = i;
+			rankedWithRest = all;
+			return rankedWithRest;
+		}
+	}
+
+	/**
+	* The values matching a filter string as indexes into the keys it was computed from; no keys
+	* means the whole list and no matches just the ranked recent values.  Fuzzy matches are also ranked,
+	* and only the ranked ones are shown; pattern matches are ranked when recent values are among them
+	*/
+	static final class Filtered {
+		final String filterString;
+		final MatchMode mode;
+		final Keys keys;
+		final int[] matches;
+		final int count;
+		final int[] ranked;
+		final String completedString;
+
+		Filtered(String filterString, MatchMode mode, Keys keys, int[] matches, int count, int[] ranked, String completedString) {
+			this.filterString = filterString;
+			this.mode = mode;
+			this.keys = keys;
+			this.matches = matches;
+			this.count = count;
+			this.ranked = ranked;
+			this.completedString = completedString;
+		}
+	}
+
 	/**
 	* Return the status <code>Document</code> model for use in the status bar
 	* UI component
@@ -0,0 +1,108 @@
+package net.contrapt.jeditutil.model
+
+import groovy.transform.CompileStatic
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.regex.Pattern
+
+/**
+ * Exclusion matching and pruning of project directories
+ */
+class ExclusionMatcherSpec extends Specification {
+
+    def directory = System.getProperty("testDataDir")
+
+    @Unroll
+    def "Directory #path is excluded=#excluded pruned=#pruned"() {
+        given:
+        File location = new File("/project")
+        ExclusionMatcher matcher = new ExclusionMatcher(location, [".*/sub1/reports"], [".*/sub1", ".*/node_modules"])
+
+        expect:
+        matcher.isExcluded(new File(location, path)) == excluded
+        matcher.isPruned(new File(location, path)) == pruned
+
+        where:
+        path|excluded|pruned
+        'src'|false|false
+        '.git'|true|true
+        '.git/objects'|true|true
+        'sub1'|true|false
+        'sub1/other'|true|false
+        'sub1/reports'|false|false
+        'sub1/reports/2015'|false|false
+        'web/node_modules'|true|false
+        'web/node_modules/lodash'|true|false
+    }
+
+    def "Excluded directories are pruned when no inclusion can match below them"() {
+        given:
+        File location = new File("/project")
+        ExclusionMatcher matcher = new ExclusionMatcher(location, ["/src/.*"], [".*/node_modules", "/build"])
+
+        expect:
+        matcher.isPruned(new File(location, "web/node_modules"))
+        matcher.isPruned(new File(location, "build"))
+        !matcher.isPruned(new File(location, "src/node_modules"))
+        !matcher.isExcluded(new File(location, "src/node_modules"))
+    }
+
+    def "Pruned scanning finds the same files as walking a tree with excluded dependency and build directories"() {
+        given:
+        File location = new File(directory, "pruned")
+        createTree(location)
+        ProjectDef project = new ProjectDef("pruned", location.getPath())
+        project.exclusions = [".*/node_modules", ".*/build"]
+        project.inclusions = []
+
+        when:
+        int legacyCount = legacyScan(location, location, [Pattern.compile(".*/node_modules(/.*)?"), Pattern.compile(".*/build(/.*)?")])
+        int count = new ProjectCache(project).getFiles().size()
+
+        then:
+        count == legacyCount
+        count == 10 * 20
+
+        cleanup:
+        location.deleteDir()
+    }
+
+    private void createTree(File location) {
+        10.times { p ->
+            File src = new File(location, "module${p}/src")
+            src.mkdirs()
+            20.times { f -> new File(src, "Source${f}.java").text = "" }
+            20.times { m ->
+                File lib = new File(location, "module${p}/node_modules/package${m}/lib")
+                lib.mkdirs()
+                10.times { f -> new File(lib, "index${f}.js").text = "" }
+            }
+            File classes = new File(location, "module${p}/build/classes")
+            classes.mkdirs()
+            50.times { f -> new File(classes, "Source${f}.class").text = "" }
+        }
+    }
+
+    /**
+     * The scan as it was done before directories were pruned: walk everything and check the
+     * relative path of each file's directory against every pattern
+     */
+    @CompileStatic
+    private int legacyScan(File location, File dir, List<Pattern> exclusions) {
+        int count = 0
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                count += legacyScan(location, file, exclusions)
+                continue
+            }
+            String relativePath = dir.getPath().replace(location.getPath(), "")
+            boolean excluded = relativePath.startsWith(".") || relativePath.startsWith(File.separator + ".")
+            for (Pattern e : exclusions) {
+                if (e.matcher(relativePath).matches()) excluded = true
+            }
+            if (!excluded) count++
+        }
+        return count
+    }
+}
@@ -0,0 +1,184 @@
+package net.contrapt.jeditutil.model
+
+import spock.lang.Specification
+
+/**
+ * Compact storage of project files
+ */
+class FileKeyStoreSpec extends Specification {
+
+    File location = new File("/project")
+
+    File sub1 = new File(location, "sub1")
+
+    def "View matches a sorted map of file keys"() {
+        given:
+        FileKeyStore store = new FileKeyStore(location)
+        Map<String, File> expected = new TreeMap<String, File>()
+        [[location, 'b.txt'], [location, 'a (1).txt'], [sub1, 'b.txt'], [sub1, 'Z.txt'], [location, 'b']].each { dir, name ->
+            store.add(dir, name)
+            File file = new File(dir, name)
+            expected.put(file.getName() + " (" + file.getParent().replace(location.getPath(), "") + ")", file)
+        }
+
+        expect:
+        store.view() == expected
+        store.view().keySet() as List == expected.keySet() as List
+        store.view().get('b.txt (/sub1)') == new File(sub1, 'b.txt')
+        store.view().get('a (1).txt ()') == new File(location, 'a (1).txt')
+        store.view().get('c.txt ()') == null
+        store.get('a (1).txt ()') == new File(location, 'a (1).txt')
+    }
+
+    def "Names are shared between directories and files can be removed"() {
+        given:
+        FileKeyStore store = new FileKeyStore(location)
+        store.add(location, 'build.xml')
+        store.add(sub1, 'build.xml')
+        Map<String, File> before = store.view()
+
+        when:
+        boolean added = store.add(sub1, 'build.xml')
+        store.remove(location, 'build.xml')
+
+        then:
+        !added
+        store.size() == 1
+        store.view().keySet() == ['build.xml (/sub1)'] as Set
+        before.size() == 2
+    }
+
+    def "Only listed names are retained and directories can be removed"() {
+        given:
+        FileKeyStore store = new FileKeyStore(location)
+        store.addAll(sub1, ['a', 'b', 'c'])
+        store.add(location, 'a')
+
+        when:
+        int retained = store.retainAll(sub1, ['b'] as Set)
+
+        then:
+        retained == 2
+        store.getNames(sub1) == ['b']
+
+        when:
+        store.removeDirectory(sub1)
+
+        then:
+        store.size() == 1
+        store.getNames(sub1).isEmpty()
+        store.view().keySet() == ['a ()'] as Set
+    }
+
+    def "View is read only"() {
+        given:
+        FileKeyStore store = new FileKeyStore(location)
+        store.add(location, 'a')
+
+        when:
+        Iterator it = store.view().keySet().iterator()
+        it.next()
+        it.remove()
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "Many files survive growing and removal"() {
+        given:
+        FileKeyStore store = new FileKeyStore(location)
+        (0..<5000).each { store.add(new File(location, "d${it % 50}"), "f${it}.java") }
+        (0..<5000).step(2) { store.remove(new File(location, "d${it % 50}"), "f${it}.java") }
+
+        expect:
+        store.size() == 2500
+        store.view().size() == 2500
+        store.view().get('f4999.java (/d49)') == new File(location, 'd49/f4999.java')
+        store.view().get('f4998.java (/d48)') == null
+    }
+
+    def "Views after a few changes at a time stay sorted as files are added, removed and reused"() {
+        given:
+        FileKeyStore store = new FileKeyStore(location, true)
+        Map<String, File> expected = new TreeMap<String, File>()
+        Random random = new Random(42)
+
+        expect:
+        (0..<300).each { step ->
+            (0..<random.nextInt(20)).each {
+                File dir = new File(location, "d${random.nextInt(5)}")
+                String name = "f${random.nextInt(200)}.txt"
+                String key = name + " (" + dir.getPath().replace(location.getPath(), "") + ")"
+                if (random.nextBoolean()) {
+                    store.add(dir, name)
+                    expected.put(key, new File(dir, name))
+                } else {
+                    store.remove(dir, name)
+                    expected.remove(key)
+                }
+            }
+            if (step % 50 == 49) {
+                store.removeDirectory(new File(location, 'd0'))
+                expected.keySet().removeAll { it.endsWith('(/d0)') }
+            }
+            Map<String, File> view = store.view()
+            assert view.keySet() as List == expected.keySet() as List
+            assert view.values() as List == expected.values() as List
+            assert store.findCandidates(view, ['f12']).collect { view.keySet()[it] }.containsAll(expected.keySet().findAll { it.contains('f12') })
+        }
+    }
+
+    def "Names no longer used are compacted away as files come and go"() {
+        given:
+        FileKeyStore store = new FileKeyStore(location, true)
+        store.add(location, 'Kept.java')
+        Map<String, File> before = store.view()
+        (0..<20).each { round ->
+            (0..<1000).each { store.add(new File(location, "d${it % 10}"), "Round${round}File${it}.java") }
+            if (round < 19) (0..<1000).each { store.remove(new File(location, "d${it % 10}"), "Round${round}File${it}.java") }
+        }
+        Map<String, File> view = store.view()
+        List<String> found = store.findCandidates(view, ['Round19File99']).collect { view.keySet()[it] }
+
+        expect:
+        store.namesLength < 4 * 1000 * 20
+        view.size() == 1001
+        view.get('Kept.java ()') == new File(location, 'Kept.java')
+        view.get('Round19File999.java (/d9)') == new File(location, 'd9/Round19File999.java')
+        view.get('Round18File999.java (/d9)') == null
+        found.findAll { it.contains('Round19File99') } == view.keySet().findAll { it.contains('Round19File99') } as List
+        found.every { it.startsWith('Round19') }
+        before.get('Kept.java ()') == new File(location, 'Kept.java')
+    }
+
+    def "Indexed candidates include every key containing the text and few others"() {
+        given:
+        FileKeyStore store = new FileKeyStore(location, true)
+        (0..<20000).each {
+            File dir = new File(location, "module${it % 40}/${it % 3 == 0 ? 'service' : 'web'}")
+            store.add(dir, "${it % 5 == 0 ? 'Order' : 'Item'}${it % 7 == 0 ? 'Service' : 'Helper'}${it % 11 == 0 ? 'Impl' : ''}${it}.java")
+        }
+        (0..<20000).step(13) { store.remove(new File(location, "module${it % 40}/${it % 3 == 0 ? 'service' : 'web'}"), "Item${it % 7 == 0 ? 'Service' : 'Helper'}${it}.java") }
+        Map<String, File> view = store.view()
+        List<String> keys = view.keySet() as List
+
+        expect:
+        [['SERVICE', 'IMPL'], ['service', 'web'], ['Order', 'module3/'], ['java (/module1'], ['nothing']].each { texts ->
+            int[] candidates = store.findCandidates(view, texts)
+            List<Integer> expected = (0..<keys.size()).findAll { i -> texts.every { keys[i].toUpperCase().contains(it.toUpperCase()) } }
+            assert candidates.toList().containsAll(expected)
+            assert candidates.toList() == candidates.toList().sort()
+            assert candidates.length <= expected.size() * 2 + 100
+        }
+        store.findCandidates(view, ['ab']) == null
+        store.findCandidates(new FileKeyStore(location).view(), ['SERVICE']) == null
+
+        when:
+        store.add(location, 'new.txt')
+
+        then:
+        store.findCandidates(view, ['SERVICE']) == null
+        store.findCandidates(store.view(), ['new.']).toList().collect { store.view().keySet()[it] } == ['new.txt ()']
+    }
+
+}
@@ -0,0 +1,66 @@
+package net.contrapt.jeditutil.model
+
+import spock.lang.Specification
+
+/**
+ * Counting and decaying the values chosen from selectors
+ */
+class FrecencyDataSpec extends Specification {
+    def directory = System.getProperty("testDataDir")
+
+    def "Scores halve every half life and grow with each use"() {
+        given:
+        FrecencyData data = new FrecencyData()
+        long now = 1000000L
+
+        when:
+        data.recordUse('files', 'a', now)
+        data.recordUse('files', 'b', now)
+        data.recordUse('files', 'b', now + FrecencyEntry.HALF_LIFE)
+
+        then:
+        data.getScores('files', now + FrecencyEntry.HALF_LIFE) == [a: 0.5d, b: 1.5d]
+        data.getScores('files', now + 2 * FrecencyEntry.HALF_LIFE) == [a: 0.25d, b: 0.75d]
+        data.getScores('buffers', now).isEmpty()
+        data.hasEntries('files')
+        !data.hasEntries('buffers')
+    }
+
+    def "Only the best values of each selector are kept"() {
+        given:
+        FrecencyData data = new FrecencyData()
+        (0..<FrecencyData.MAX_ENTRIES).each {
+            data.recordUse('files', "key$it", 0L)
+            data.recordUse('files', "key$it", 0L)
+        }
+        data.recordUse('files', 'old', 0L)
+        int version = data.getVersion('files')
+        int otherVersion = data.getVersion('buffers')
+
+        when:
+        data.recordUse('files', 'new', 1L)
+
+        then:
+        data.getVersion('files') != version
+        data.getVersion('buffers') == otherVersion
+        data.getScores('files', 1L).size() == FrecencyData.MAX_ENTRIES
+        data.getScores('files', 1L).containsKey('new')
+        !data.getScores('files', 1L).containsKey('old')
+    }
+
+    def "Read and write a frecency data file"() {
+        given:
+        String outFile = directory+"/frecency.out.json"
+        FrecencyData data1 = new FrecencyData()
+        data1.recordUse('files', 'a', 1000L)
+        data1.recordUse('buffers', 'b', 2000L)
+
+        when:
+        data1.writeData(outFile)
+        FrecencyData data2 = BaseModel.readData(outFile, FrecencyData.class)
+
+        then:
+        data2.getScores('files', 5000L) == data1.getScores('files', 5000L)
+        data2.getScores('buffers', 5000L) == data1.getScores('buffers', 5000L)
+    }
+}
@@ -67,4 +67,273 @@ class ProjectCacheSpec extends Specification {
 
     }
 
+    def "Test project file caching with watched project"() {
+        given:
+
+        String inFile = directory+"/project1.json"
+        ProjectData projects = BaseModel.readData(inFile, ProjectData)
+        ProjectDef project = projects.getProjects().get(1)
+
+        when:
+        ProjectCache cache = new ProjectCache(project)
+        cache.startWatching()
+        Thread.sleep(1000);
+
+        then:
+        cache.isWatching()
+        cache.getFiles().size() == 4
+
+        when:
+        File newDir = new File(cache.getLocation(), "newdir")
+        newDir.mkdir()
+        File newOne = File.createTempFile("file","suf", newDir);
+        newOne.deleteOnExit();
+        newDir.deleteOnExit();
+        Thread.sleep(1000);
+
+        then:
+        cache.getFiles().size() == 5
+        cache.getDirectories().contains(newDir)
+
+        when:
+        newOne.delete();
+        newDir.delete();
+        Thread.sleep(1000);
+
+        then:
+        cache.getFiles().size() == 4
+        !cache.getDirectories().contains(newDir)
+
+        cleanup:
+        cache.stopWatching()
+    }
+
+    def "Test initial scan reports progress"() {
+        given:
+
+        String inFile = directory+"/project1.json"
+        ProjectData projects = BaseModel.readData(inFile, ProjectData)
+        ProjectDef project = projects.getProjects().get(1)
+        ProjectCache cache = new ProjectCache(project)
+        def progress = []
+
+        when:
+        Map<String, File> files = cache.getFiles({ dirs, count -> progress << [dirs, count] } as ProjectCache.ScanListener)
+
+        then:
+        files.size() == 4
+        progress.last() == [6, 4]
+    }
+
+    def "Test initial scan passes on the files it finds"() {
+        given:
+
+        String inFile = directory+"/project1.json"
+        ProjectData projects = BaseModel.readData(inFile, ProjectData)
+        ProjectDef project = projects.getProjects().get(1)
+        ProjectCache cache = new ProjectCache(project)
+        Map<String, File> scanned = new java.util.concurrent.ConcurrentHashMap<String, File>()
+        ProjectCache.FileScanListener listener = new ProjectCache.FileScanListener() {
+            void scanProgress(int directories, int count) {}
+            void filesScanned(File dir, Collection<String> names) {
+                names.each { String name -> File file = new File(dir, name); scanned.put(cache.createFileKey(file), file) }
+            }
+        }
+
+        when:
+        Map<String, File> files = cache.getFiles(listener)
+
+        then:
+        scanned == files
+    }
+
+    def "Test saving and restoring the project cache from an index"() {
+        given:
+
+        String inFile = directory+"/project1.json"
+        ProjectData projects = BaseModel.readData(inFile, ProjectData)
+        ProjectDef project = projects.getProjects().get(ndx)
+        File indexFile = new File(directory, "project${ndx}.index")
+        indexFile.delete()
+
+        when:
+        ProjectCache cache1 = new ProjectCache(project)
+        cache1.setIndexFile(indexFile)
+        cache1.getFiles()
+        cache1.saveIndex()
+        ProjectCache cache2 = new ProjectCache(project)
+        cache2.setIndexFile(indexFile)
+
+        then:
+        indexFile.exists()
+        cache2.getFiles() == cache1.getFiles()
+        cache2.getDirectories() == cache1.getDirectories()
+        !cache2.isOutOfDate()
+
+        when:
+        File newOne = File.createTempFile("file","suf", cache1.getLocation());
+        newOne.deleteOnExit();
+        Thread.sleep(1000);
+        ProjectCache cache3 = new ProjectCache(project)
+        cache3.setIndexFile(indexFile)
+
+        then:
+        cache3.getFiles().size() == fileCount+1
+
+        cleanup:
+        newOne?.delete()
+        indexFile.delete()
+
+        where:
+        ndx|fileCount
+        0|2
+        1|4
+    }
+
+    def "A corrupt index is deleted and the project scanned instead"() {
+        given:
+
+        String inFile = directory+"/project1.json"
+        ProjectData projects = BaseModel.readData(inFile, ProjectData)
+        ProjectDef project = projects.getProjects().get(1)
+        File indexFile = new File(directory, "corrupt.index")
+        ProjectCache cache1 = new ProjectCache(project)
+        cache1.setIndexFile(indexFile)
+        cache1.getFiles()
+        cache1.saveIndex()
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw")
+        file.seek(offset)
+        file.writeInt(count)
+        if (truncate) file.setLength(file.length() - 6)
+        file.close()
+
+        when:
+        ProjectCache cache2 = new ProjectCache(project)
+        cache2.setIndexFile(indexFile)
+
+        then:
+        cache2.getFiles() == cache1.getFiles()
+        !indexFile.exists()
+
+        cleanup:
+        indexFile.delete()
+
+        where:
+        offset|count|truncate
+        8|Integer.MAX_VALUE|false
+        8|-1|false
+        12|-5|false
+        8|3|true
+    }
+
+
+    def "Scan metrics count what the cache did"() {
+        given:
+
+        String inFile = directory+"/project1.json"
+        ProjectData projects = BaseModel.readData(inFile, ProjectData)
+        ProjectDef project = projects.getProjects().get(0)
+        ProjectCache cache = new ProjectCache(project)
+        def refreshed = []
+        cache.setRefreshListener({ refreshed << it } as ProjectCache.RefreshListener)
+
+        when:
+        cache.getFiles()
+        cache.getFiles()
+        ScanMetrics metrics = cache.getMetrics()
+
+        then:
+        refreshed == [cache, cache]
+        metrics.getRefreshes() == 2
+        metrics.getDirectoriesListed() == 3
+        metrics.getDirectoriesChecked() == 3
+        metrics.getFilesAdded() == 2
+        metrics.getFilesRemoved() == 0
+        metrics.getFilesSkipped() == 1
+        metrics.getRefreshTimes().getCount() == 2
+        metrics.getGetFilesTimes().getCount() == 2
+        metrics.getRefreshTimes().getPercentile(50) <= metrics.getRefreshTimes().getMax()
+
+        when:
+        cache.clear()
+
+        then:
+        cache.getMetrics().getRefreshes() == 0
+    }
+
+    def "Directories passed over are only counted once however often they're seen"() {
+        given:
+
+        String inFile = directory+"/project1.json"
+        ProjectData projects = BaseModel.readData(inFile, ProjectData)
+        ProjectDef project = projects.getProjects().get(1)
+        ProjectCache cache = new ProjectCache(project)
+        cache.addChildLocation(new File(cache.getLocation(), "sub1"))
+
+        when:
+        cache.getFiles()
+        cache.rescan()
+        cache.rescan()
+        cache.getFiles()
+
+        then:
+        cache.getMetrics().getDirectoriesSkipped() == 1
+        cache.getMetrics().getDirectoriesListed() > 3
+    }
+
+    def "Snapshots stay consistent while the project is rescanned"() {
+        given:
+
+        String inFile = directory+"/project1.json"
+        ProjectData projects = BaseModel.readData(inFile, ProjectData)
+        ProjectDef project = projects.getProjects().get(1)
+        ProjectCache cache = new ProjectCache(project)
+        cache.getFiles()
+        File stressDir = new File(cache.getLocation(), "stress")
+        stressDir.mkdir()
+        def errors = Collections.synchronizedList([])
+        def snapshots = new java.util.concurrent.atomic.AtomicInteger()
+        long stop = System.currentTimeMillis() + 2000
+
+        when:
+        def readers = (1..4).collect {
+            Thread.start {
+                try {
+                    while (System.currentTimeMillis() < stop) {
+                        ProjectSnapshot snapshot = cache.getSnapshot()
+                        int count = 0
+                        for (Map.Entry<String, File> entry : snapshot.getFiles().entrySet()) {
+                            if (!snapshot.getDirectories().contains(entry.getValue().getParentFile())) errors << "Missing directory for ${entry.key}"
+                            if (!snapshot.getFiles().containsKey(entry.key)) errors << "Missing key ${entry.key}"
+                            count++
+                        }
+                        if (count != snapshot.getFiles().size()) errors << "Size ${snapshot.getFiles().size()} but iterated ${count}"
+                        snapshots.incrementAndGet()
+                    }
+                }
+                catch (Throwable t) {
+                    errors << t
+                }
+            }
+        }
+        int rescans = 0
+        while (System.currentTimeMillis() < stop) {
+            File newOne = new File(stressDir, "file${rescans % 20}")
+            if (newOne.exists()) newOne.delete() else newOne.createNewFile()
+            cache.rescan()
+            cache.getFiles()
+            rescans++
+        }
+        readers*.join()
+
+        then:
+        errors.isEmpty()
+        snapshots.get() > 0
+        rescans > 0
+
+        cleanup:
+        stressDir.listFiles()?.each { it.delete() }
+        stressDir.delete()
+    }
+
 }
@@ -12,6 +12,22 @@ class ProjectManagerSpec extends Specification {
     @Shared
     def directory = System.getProperty("testDataDir")
 
+    /**
+     * Shutting a manager down saves the project indexes next to the data file; left there they would be
+     * loaded instead of scanning in the next run
+     */
+    def setup() {
+        deleteIndexes()
+    }
+
+    def cleanup() {
+        deleteIndexes()
+    }
+
+    private void deleteIndexes() {
+        new File(directory).listFiles().findAll { it.name ==~ /projects\..*\.index/ }*.delete()
+    }
+
     @Unroll
     def "Find a project given a file"() {
         given:
@@ -26,6 +42,9 @@ class ProjectManagerSpec extends Specification {
         new File("${directory}${File.separator}project1${File.separator}build${File.separator}file2.txt")|'project1'|true
         new File("${directory}${File.separator}project1${File.separator}file1.txt")|'project1'|true
         new File("${directory}${File.separator}project1.json")|_|false
+        new File("${directory}${File.separator}project2${File.separator}sub2${File.separator}file.txt")|'project2'|true
+        new File("${directory}${File.separator}project2${File.separator}sub1${File.separator}a${File.separator}file.txt")|'project3'|true
+        new File("${directory}${File.separator}project2x${File.separator}file.txt")|_|false
 
     }
 
@@ -46,4 +65,128 @@ class ProjectManagerSpec extends Specification {
 
     }
 
+    def "Nested projects are not walked by their parent"() {
+        given:
+        String inFile = directory+File.separator+"project1.json"
+        ProjectManager manager = new ProjectManager(inFile)
+        ProjectCache parent = manager.findProject('project2')
+        ProjectCache child = manager.findProject('project3')
+
+        expect:
+        parent.getFiles().size() == 2
+        parent.getDirectories().size() == 4
+        parent.getSkippedDirectories() == 1
+        child.getFiles().size() == 2
+        manager.findProjectForFile(new File(child.getLocation(), "file2.txt")) == child
+    }
+
+    def "Excluded files are counted"() {
+        given:
+        String inFile = directory+File.separator+"project1.json"
+        ProjectManager manager = new ProjectManager(inFile)
+        ProjectCache cache = manager.findProject('project1')
+
+        expect:
+        cache.getFiles().size() == 2
+        cache.getSkippedFiles() == 1
+        cache.getSkippedDirectories() == 0
+    }
+
+    def "Repeated lookups return the same project"() {
+        given:
+        String inFile = directory+File.separator+"project1.json"
+        ProjectManager manager = new ProjectManager(inFile)
+        String path = "${directory}${File.separator}project2${File.separator}sub1${File.separator}file2.txt"
+
+        expect:
+        (1..3).collect { manager.findProjectForPath(path) }.unique()*.getProject()*.getName() == ['project3']
+        manager.findProjectForPath("file.txt") == null
+    }
+
+    def "Background refresh warms the projects and reports when nothing changed"() {
+        given:
+        String inFile = directory+File.separator+"project1.json"
+        ProjectManager manager = new ProjectManager(inFile)
+        ProjectCache cache = manager.findProject('project1')
+
+        when:
+        boolean first = manager.refreshProjects()
+        boolean second = manager.refreshProjects()
+
+        then:
+        first
+        !second
+        cache.getSnapshot().getFiles().size() == 2
+        cache.getLastRefreshed() > 0
+        manager.getLastRefreshed() > 0
+
+        cleanup:
+        manager.shutdown()
+    }
+
+    def "The refresh listener hears about every project refreshed in the background"() {
+        given:
+        String inFile = directory+File.separator+"project1.json"
+        ProjectManager manager = new ProjectManager(inFile)
+        List<String> refreshed = [].asSynchronized()
+        manager.setRefreshListener({ ProjectCache cache -> refreshed << cache.getProject().getName() } as ProjectCache.RefreshListener)
+
+        when:
+        manager.refreshProjects()
+
+        then:
+        refreshed.sort() == manager.getProjectsByName().keySet().sort()
+
+        cleanup:
+        manager.shutdown()
+    }
+
+    def "Shutting down doesn't wait long for a refresh that is still running"() {
+        given:
+        String inFile = directory+File.separator+"project1.json"
+        ProjectManager manager = new ProjectManager(inFile)
+        ProjectCache stuck = manager.findProject('project1')
+        java.util.concurrent.CountDownLatch locked = new java.util.concurrent.CountDownLatch(1)
+        java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1)
+        Thread holder = Thread.start {
+            synchronized (stuck) {
+                locked.countDown()
+                release.await()
+            }
+        }
+        locked.await()
+        stuck.refresh()
+        Thread.sleep(100)
+
+        when:
+        long start = System.currentTimeMillis()
+        manager.shutdown()
+        long elapsed = System.currentTimeMillis() - start
+
+        then:
+        elapsed < 10000
+
+        cleanup:
+        release.countDown()
+        holder?.join()
+    }
+
+    def "Background refresh waits while the editor is busy"() {
+        given:
+        String inFile = directory+File.separator+"project1.json"
+        ProjectManager manager = new ProjectManager(inFile)
+        manager.setBusyCheck({ true } as ProjectManager.BusyCheck)
+
+        when:
+        boolean changed = manager.refreshProjects()
+
+        then:
+        !changed
+        manager.findProject('project1').getSnapshot().getFiles().isEmpty()
+        manager.findProject('project1').getLastRefreshed() == 0
+
+        cleanup:
+        manager.shutdown()
+    }
+
 }
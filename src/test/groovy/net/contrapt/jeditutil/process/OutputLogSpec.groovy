@@ -0,0 +1,80 @@
+package net.contrapt.jeditutil.process
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Reading ranges of process output back from disk
+ */
+class OutputLogSpec extends Specification {
+
+    static List<String> lines(long from, long to) {
+        (from..<to).collect { "line $it".toString() }
+    }
+
+    @Unroll
+    def "Reading #count lines from line #from gives the lines written there"() {
+        given:
+        File file = File.createTempFile('output', null)
+        file.deleteOnExit()
+        OutputLog log = new OutputLog(file, 8)
+        lines(0, 100).each { byte[] bytes = it.bytes; log.write(bytes, 0, bytes.length) }
+
+        expect:
+        log.lineCount == 100
+        log.readLines(from, count) == lines(from, Math.min(100, from + count))
+
+        when:
+        log.close()
+
+        then:
+        log.readLines(from, count) == lines(from, Math.min(100, from + count))
+
+        cleanup:
+        file.delete()
+
+        where:
+        from | count
+        0    | 5
+        7    | 3
+        8    | 8
+        63   | 20
+        95   | 10
+        99   | 1
+    }
+
+    def "Carriage returns inside lines don't throw the index off"() {
+        given:
+        File file = File.createTempFile('output', null)
+        file.deleteOnExit()
+        OutputLog log = new OutputLog(file, 4)
+        List<String> written = (0..<20).collect { "progress $it\r${it}0%\r${it}5%".toString() }
+        written.each { byte[] bytes = it.bytes; log.write(bytes, 0, bytes.length) }
+
+        expect:
+        log.readLines(0, 20) == written
+        log.readLines(6, 3) == written[6..8]
+        log.readLines(17, 5) == written[17..19]
+
+        cleanup:
+        log.close()
+        file.delete()
+    }
+
+    def "Ranges outside the output are empty"() {
+        given:
+        File file = File.createTempFile('output', null)
+        file.deleteOnExit()
+        OutputLog log = new OutputLog(file, 8)
+        lines(0, 10).each { byte[] bytes = it.bytes; log.write(bytes, 0, bytes.length) }
+
+        expect:
+        log.readLines(10, 5) == []
+        log.readLines(-1, 5) == []
+        log.readLines(3, 0) == []
+
+        cleanup:
+        log.close()
+        file.delete()
+    }
+}
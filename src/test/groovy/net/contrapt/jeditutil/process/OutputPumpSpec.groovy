@@ -0,0 +1,68 @@
+package net.contrapt.jeditutil.process
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.channels.Channels
+
+/**
+ * Splitting process output into lines of bytes
+ */
+class OutputPumpSpec extends Specification {
+
+    static List<String> pump(String output, int bufferSize) {
+        List<String> lines = []
+        OutputPump pump = new OutputPump(Channels.newChannel(new ByteArrayInputStream(output.bytes)), bufferSize)
+        pump.pump(new OutputPump.LineSink() {
+            boolean line(byte[] bytes, int offset, int length) {
+                lines << new String(bytes, offset, length)
+                return true
+            }
+        })
+        return lines
+    }
+
+    @Unroll
+    def "Output #output.inspect() is split into #lines with a #bufferSize byte buffer"() {
+        expect:
+        pump(output, bufferSize) == lines
+
+        where:
+        output                         | bufferSize | lines
+        ''                             | 4          | []
+        'one\ntwo\n'                   | 4          | ['one', 'two']
+        'one\ntwo'                     | 4          | ['one', 'two']
+        'one\r\ntwo\r\n'               | 4          | ['one', 'two']
+        '10%\r50%\r100%\ndone\n'       | 4          | ['10%', '50%', '100%', 'done']
+        'one\r\r\ntwo\rthree'          | 4          | ['one', '', 'two', 'three']
+        'abc\r\ndef'                   | 4          | ['abc', 'def']
+        '\n\nthree\n'                  | 4          | ['', '', 'three']
+        'a longer line than the buffer\nb\n' | 4    | ['a longer line than the buffer', 'b']
+        'one\ntwo\n'                   | 64         | ['one', 'two']
+    }
+
+    def "Lines split across reads come out whole"() {
+        given:
+        List<String> expected = (0..<1000).collect { "line $it ${'x' * (it % 50)}".toString() }
+
+        expect:
+        pump(expected.join('\n') + '\n', 16) == expected
+    }
+
+    def "The sink can stop the pump"() {
+        given:
+        List<String> lines = []
+        OutputPump pump = new OutputPump(Channels.newChannel(new ByteArrayInputStream('one\ntwo\nthree\n'.bytes)), 64)
+
+        when:
+        pump.pump(new OutputPump.LineSink() {
+            boolean line(byte[] bytes, int offset, int length) {
+                lines << new String(bytes, offset, length)
+                return lines.size() < 2
+            }
+        })
+
+        then:
+        lines == ['one', 'two']
+    }
+}
@@ -0,0 +1,84 @@
+package net.contrapt.jeditutil.process
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Keeping the tail of process output in memory
+ */
+class OutputRingSpec extends Specification {
+
+    static List<String> lines(int from, int to) {
+        (from..<to).collect { "line $it".toString() }
+    }
+
+    @Unroll
+    def "The tail of #count lines keeping #capacity is the last lines written"() {
+        given:
+        OutputRing ring = new OutputRing(capacity, 4)
+
+        when:
+        lines(0, count).each { byte[] bytes = it.bytes; ring.add(bytes, 0, bytes.length) }
+
+        then:
+        ring.lineCount == count
+        ring.tailStart == Math.max(0, count - capacity)
+        ring.getLines(0) == lines(Math.max(0, count - capacity), count)
+
+        where:
+        capacity | count
+        5        | 0
+        5        | 3
+        5        | 5
+        5        | 9
+        5        | 10
+        5        | 103
+        4        | 17
+    }
+
+    def "Lines can be read from any line number in the tail"() {
+        given:
+        OutputRing ring = new OutputRing(10, 4)
+        lines(0, 25).each { byte[] bytes = it.bytes; ring.add(bytes, 0, bytes.length) }
+
+        expect:
+        ring.getLines(20) == lines(20, 25)
+        ring.getLines(25) == []
+        ring.getLines(3) == lines(15, 25)
+    }
+
+    def "The tail start comes with the lines read from it"() {
+        given:
+        OutputRing ring = new OutputRing(10, 4)
+        lines(0, 25).each { byte[] bytes = it.bytes; ring.add(bytes, 0, bytes.length) }
+
+        when:
+        OutputRing.Tail tail = ring.getTail(3)
+
+        then:
+        tail.start == 15
+        tail.lines == lines(15, 25)
+    }
+
+    def "Memory stays within a segment of the tail"() {
+        given:
+        OutputRing ring = new OutputRing(10, 4)
+
+        when:
+        lines(0, 1000).each { byte[] bytes = it.bytes; ring.add(bytes, 0, bytes.length) }
+
+        then:
+        ring.segments.size() <= 4
+    }
+
+    def "A ring without capacity keeps everything"() {
+        given:
+        OutputRing ring = new OutputRing(0, 4)
+
+        when:
+        lines(0, 50).each { byte[] bytes = it.bytes; ring.add(bytes, 0, bytes.length) }
+
+        then:
+        ring.getLines(0) == lines(0, 50)
+    }
+}
@@ -0,0 +1,527 @@
+package net.contrapt.jeditutil.selector
+
+import groovy.transform.CompileStatic
+import net.contrapt.jeditutil.model.FrecencyData
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import javax.swing.event.ListDataEvent
+import javax.swing.event.ListDataListener
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.regex.Pattern
+
+/**
+ * Filtering of selector values
+ */
+class ValueSelectorSpec extends Specification {
+
+    static Map<String, String> values(Collection<String> keys) {
+        Map<String, String> map = new TreeMap<String, String>()
+        keys.each { map.put(it, it) }
+        return map
+    }
+
+    static Map<String, String> files = values(['ValueSelector.java (/src/selector)', 'ValueSelectionDialog.java (/src/selector)',
+            'UtilPlugin.java (/src)', 'build.gradle ()', 'Value.txt ()', 'a.b ()', 'ab ()', 'README.md ()'])
+
+    static List<String> filtered(ValueSelector selector) {
+        (0..<selector.getSize()).collect { selector.getElementAt(it) }
+    }
+
+    @Unroll
+    def "Typing #typed one character at a time matches a full filter of each query"() {
+        given:
+        TestSelector typing = new TestSelector(files, caseSensitive)
+
+        expect:
+        (1..typed.length()).each { n ->
+            String query = typed.substring(0, n)
+            TestSelector fresh = new TestSelector(files, caseSensitive)
+            String completed = fresh.filterList(query)
+            assert typing.filterList(query) == completed
+            assert typing.hasMatches() == fresh.hasMatches()
+            if ( fresh.hasMatches() ) assert filtered(typing) == filtered(fresh)
+        }
+
+        where:
+        typed|caseSensitive
+        'value'|false
+        'Value*.java'|true
+        'a.*'|false
+        '*sel'|false
+        'valuex'|false
+        '*.java (/src)'|false
+        'a?b'|false
+    }
+
+    def "Deleting characters goes back to a full filter"() {
+        given:
+        TestSelector selector = new TestSelector(files, false)
+
+        when:
+        selector.filterList('valuese')
+        selector.filterList('value')
+
+        then:
+        filtered(selector) == ['Value.txt ()', 'ValueSelectionDialog.java (/src/selector)', 'ValueSelector.java (/src/selector)']
+    }
+
+    def "Parallel filtering gives the same matches and completion as sequential filtering"() {
+        given:
+        Map<String, String> big = values((0..<40000).collect { "File${it}${it % 7 == 0 ? 'Selector' : 'Value'}.java (/src/module${it % 100})".toString() })
+        TestSelector sequential = new TestSelector(big, false)
+        TestSelector parallel = new TestSelector(big, false)
+        parallel.parallelThreshold = 1
+
+        expect:
+        ['f', 'fi', 'file1', 'file12', 'file12*sel', 'file1', '*module42)', 'nothing', 'file3'].each { query ->
+            assert parallel.filterList(query) == sequential.filterList(query)
+            assert parallel.hasMatches() == sequential.hasMatches()
+            assert filtered(parallel) == filtered(sequential)
+        }
+    }
+
+    def "A cancelled filter leaves the list alone"() {
+        given:
+        Map<String, String> big = values((0..<20000).collect { "File${it}.java".toString() })
+        TestSelector selector = new TestSelector(big, false)
+        selector.filterList('file1')
+        List<String> before = filtered(selector)
+
+        when:
+        ValueSelector.Filtered cancelled = selector.computeFilter('file12', { true } as ValueSelector.Cancellation)
+        ValueSelector.Filtered computed = selector.computeFilter('file12', { false } as ValueSelector.Cancellation)
+
+        then:
+        cancelled == null
+        filtered(selector) == before
+
+        when:
+        String completed = selector.applyFilter(computed)
+
+        then:
+        completed == 'File12'
+        filtered(selector) == before.findAll { it.toUpperCase().startsWith('FILE12') }
+    }
+
+    def "The list model tells listeners exactly which rows changed"() {
+        given:
+        TestSelector selector = new TestSelector(files, false)
+        List<String> events = []
+        selector.addListDataListener(new ListDataListener() {
+            void intervalAdded(ListDataEvent e) { events << "added ${e.index0}-${e.index1}".toString() }
+            void intervalRemoved(ListDataEvent e) { events << "removed ${e.index0}-${e.index1}".toString() }
+            void contentsChanged(ListDataEvent e) { events << "changed ${e.index0}-${e.index1}".toString() }
+        })
+
+        when:
+        selector.filterList('')
+
+        then:
+        events == ['added 0-7']
+        filtered(selector) == files.keySet() as List
+        selector.getElementAt(8) == null
+
+        when:
+        events.clear()
+        selector.filterList('value')
+
+        then:
+        events == ['removed 3-7', 'changed 0-2']
+        selector.getSize() == 3
+
+        when:
+        events.clear()
+        selector.clearList()
+
+        then:
+        events == ['removed 0-2']
+        selector.getSize() == 0
+        selector.getLongestKey() == null
+    }
+
+    def "The current value can be removed when the loaded values are read only"() {
+        given:
+        TestSelector selector = new TestSelector(files, false) {
+            Map<String, String> loadValueMap() { Collections.unmodifiableMap(new TreeMap<String, String>(files)) }
+        }
+        selector.filterList('')
+        java.lang.reflect.Field current = ValueSelector.getDeclaredField('currentIndex')
+        current.setAccessible(true)
+        current.set(selector, 3)
+
+        when:
+        String removed = selector.removeCurrentValue()
+
+        then:
+        removed == 'ValueSelectionDialog.java (/src/selector)'
+        filtered(selector) == (files.keySet() - removed) as List
+        selector.getValueMap().size() == files.size() - 1
+
+        when:
+        selector.filterList('value')
+
+        then:
+        filtered(selector) == ['Value.txt ()', 'ValueSelector.java (/src/selector)']
+    }
+
+    def "Cached selectors load their values once until they are invalidated"() {
+        given:
+        CachedSelector.loads = 0
+        ValueSelector.invalidate(CachedSelector)
+        CachedSelector first = new CachedSelector(files)
+
+        when:
+        first.reloadList()
+        first.filterList('value')
+        CachedSelector second = new CachedSelector(files)
+        second.reloadList()
+
+        then:
+        CachedSelector.loads == 1
+        second.getValueMap().is(first.getValueMap())
+        second.filterList('value') == first.filterList('value')
+
+        when:
+        ValueSelector.invalidate(CachedSelector)
+        new CachedSelector(files).reloadList()
+        new CachedSelector(files).reloadList()
+
+        then:
+        CachedSelector.loads == 2
+
+        when:
+        CachedSelector.current = false
+        new CachedSelector(files).reloadList()
+        CachedSelector.current = true
+        new CachedSelector(files).reloadList()
+
+        then:
+        CachedSelector.loads == 3
+
+        cleanup:
+        CachedSelector.current = true
+    }
+
+    def "Streamed values can be filtered as batches arrive and are replaced by the complete values"() {
+        given:
+        ValueSelector.invalidate(StreamingSelector)
+        StreamingSelector selector = new StreamingSelector(files)
+        List<List<String>> shown = []
+
+        when:
+        selector.reloadList({
+            selector.filterList('value')
+            shown << filtered(selector)
+            selector.shown.countDown()
+        } as Runnable)
+
+        then:
+        shown == [['Value.txt ()', 'ValueSelector.java (/src/selector)']]
+        selector.getValueMap() == files
+
+        when:
+        StreamingSelector cached = new StreamingSelector(files)
+        cached.reloadList()
+        cached.filterList('value')
+
+        then:
+        filtered(cached) == ['Value.txt ()', 'ValueSelectionDialog.java (/src/selector)', 'ValueSelector.java (/src/selector)']
+    }
+
+    def "Fuzzy matches rank boundary and camel case hits first"() {
+        given:
+        TestSelector selector = new TestSelector(files, false)
+        selector.defaultMode = ValueSelector.MatchMode.FUZZY
+
+        when:
+        String completed = selector.filterList('vsj')
+
+        then:
+        completed == 'vsj'
+        filtered(selector) == ['ValueSelector.java (/src/selector)', 'ValueSelectionDialog.java (/src/selector)']
+
+        when:
+        selector.filterList('upj')
+
+        then:
+        filtered(selector) == ['UtilPlugin.java (/src)']
+
+        when:
+        selector.filterList('sel*src')
+
+        then:
+        filtered(selector).first() == 'ValueSelector.java (/src/selector)'
+    }
+
+    def "Typing a fuzzy query one character at a time matches a full filter of each query"() {
+        given:
+        Map<String, String> big = values((0..<30000).collect { "File${it}${it % 7 == 0 ? 'Selector' : 'Value'}.java (/src/module${it % 100})".toString() })
+        TestSelector typing = new TestSelector(big, false)
+        typing.defaultMode = ValueSelector.MatchMode.FUZZY
+        typing.parallelThreshold = 1
+        String typed = 'f12selj42'
+
+        expect:
+        (1..typed.length()).each { n ->
+            String query = typed.substring(0, n)
+            TestSelector fresh = new TestSelector(big, false)
+            fresh.defaultMode = ValueSelector.MatchMode.FUZZY
+            assert typing.filterList(query) == fresh.filterList(query)
+            assert typing.hasMatches() == fresh.hasMatches()
+            if ( fresh.hasMatches() ) assert filtered(typing) == filtered(fresh)
+        }
+    }
+
+    def "Only the best fuzzy matches are ranked, in the same order as a full sort"() {
+        given:
+        Random random = new Random(42)
+        int[] matches = (0..<5000) as int[]
+        int[] scores = (0..<5000).collect { random.nextInt(50) } as int[]
+        int[] ranked = new int[100]
+
+        when:
+        int count = FuzzyMatcher.rank(matches, scores, matches.length, ranked)
+
+        then:
+        count == 100
+        ranked as List == (0..<5000).toList().sort { a, b -> scores[b] <=> scores[a] ?: a <=> b }.take(100)
+    }
+
+    def "Pattern filters check only the candidates an index gives"() {
+        given:
+        Map<String, String> big = values((0..<20000).collect { "${it % 7 == 0 ? 'Order' : 'Item'}${it % 5 == 0 ? 'Service' : 'Helper'}${it % 3 == 0 ? 'Impl' : ''}${it}.java".toString() })
+        TestSelector plain = new TestSelector(big, false)
+        TestSelector indexed = new TestSelector(big, false)
+        List<List<String>> lookups = []
+        indexed.index = { Map<String, String> values, List<String> texts ->
+            lookups << texts
+            List<String> keys = values.keySet() as List
+            (0..<keys.size()).findAll { i -> texts.every { keys[i].toUpperCase().contains(it.toUpperCase()) } } as int[]
+        }
+
+        expect:
+        ['*Service*Impl', 'order', 'item1.', '*help?r', 'x'].each { query ->
+            assert indexed.filterList(query) == plain.filterList(query)
+            assert indexed.hasMatches() == plain.hasMatches()
+            if ( plain.hasMatches() ) assert filtered(indexed) == filtered(plain)
+        }
+        lookups == [['Service', 'Impl'], ['order'], ['item1'], ['x']]
+    }
+
+    def "Recently chosen values are shown for an empty filter and ranked first among matches"() {
+        given:
+        ValueSelector.setFrecencyData(new FrecencyData())
+        TestSelector selector = new TestSelector(files, false)
+        selector.fullList = false
+
+        expect:
+        selector.filterList('') == ''
+        filtered(selector) == []
+        !selector.hasMatches()
+
+        when:
+        selector.setFinalSelection('UtilPlugin.java (/src)')
+        selector.setFinalSelection('README.md ()')
+        selector.setFinalSelection('README.md ()')
+        selector.filterList('')
+
+        then:
+        selector.hasMatches()
+        filtered(selector) == ['README.md ()', 'UtilPlugin.java (/src)']
+
+        when:
+        selector.fullList = true
+        selector.filterList('*')
+
+        then:
+        filtered(selector) == ['README.md ()', 'UtilPlugin.java (/src)'] + (files.keySet() - ['README.md ()', 'UtilPlugin.java (/src)'])
+
+        when:
+        String completed = selector.filterList('*l')
+
+        then:
+        completed == ''
+        filtered(selector) == ['UtilPlugin.java (/src)', 'Value.txt ()', 'ValueSelectionDialog.java (/src/selector)', 'ValueSelector.java (/src/selector)', 'build.gradle ()']
+
+        when:
+        selector.setFinalSelection('ValueSelectionDialog.java (/src/selector)')
+        selector.defaultMode = ValueSelector.MatchMode.FUZZY
+        selector.filterList('vsj')
+
+        then:
+        filtered(selector) == ['ValueSelectionDialog.java (/src/selector)', 'ValueSelector.java (/src/selector)']
+
+        cleanup:
+        ValueSelector.setFrecencyData(null)
+    }
+
+    def "Per keystroke allocation is a fraction of the legacy filter"() {
+        given:
+        Map<String, String> big = values((0..<200000).collect { "File${it}${it % 7 == 0 ? 'Selector' : 'Value'}.java (/src/module${it % 100})".toString() })
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()
+        long thread = Thread.currentThread().getId()
+        String typed = 'file1*sel'
+        List<String> queries = (1..typed.length()).collect { typed.substring(0, it) }
+        // Warm up both
+        (1..3).each {
+            queries.each { legacyFilter(big.keySet(), it) }
+            TestSelector warm = new TestSelector(big, false)
+            queries.each { warm.filterList(it) }
+        }
+
+        when:
+        long legacyBytes = threads.getThreadAllocatedBytes(thread)
+        List<String> legacy = null
+        queries.each { legacy = legacyFilter(big.keySet(), it) }
+        legacyBytes = threads.getThreadAllocatedBytes(thread) - legacyBytes
+        TestSelector selector = new TestSelector(big, false)
+        selector.filterList('f')
+        long bytes = threads.getThreadAllocatedBytes(thread)
+        queries.tail().each { selector.filterList(it) }
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes
+
+        then:
+        filtered(selector) == legacy
+        bytes / (queries.size() - 1) < legacyBytes / queries.size() / 4
+    }
+
+    /**
+     * The filter as it was before keys were normalized once per load
+     */
+    @CompileStatic
+    private static List<String> legacyFilter(Set<String> keys, String filterString) {
+        List<String> filteredList = new ArrayList<String>()
+        filterString = filterString.toUpperCase()
+        String completedString = null
+        Pattern regex = Pattern.compile(legacyRegex(filterString))
+        for (String value : keys) {
+            String cValue = value.toUpperCase()
+            boolean match = false
+            if (regex.matcher(cValue).matches()) match = true
+            else if (cValue.startsWith(filterString)) match = true
+            if (match) {
+                completedString = (completedString == null) ? value : commonString(completedString, value)
+                filteredList.add(value)
+            }
+        }
+        return filteredList
+    }
+
+    @CompileStatic
+    private static String legacyRegex(String pattern) {
+        StringBuilder buf = new StringBuilder(pattern.length())
+        boolean wasDot = false
+        for (char c : pattern.toCharArray()) {
+            switch (c) {
+                case '*':
+                    if (wasDot) wasDot = false
+                    else buf.append('.')
+                    break
+                case '(':
+                case ')':
+                case '\\':
+                    if (wasDot) wasDot = false
+                    buf.append('\\')
+                    break
+                case '.':
+                    wasDot = true
+                    break
+                default:
+                    wasDot = false
+            }
+            buf.append(c)
+        }
+        buf.append('.*')
+        return buf.toString()
+    }
+
+    @CompileStatic
+    private static String commonString(String value1, String value2) {
+        int length = Math.min(value1.length(), value2.length())
+        int ndx = 0
+        for (; ndx < length; ndx++) if (value1.charAt(ndx) != value2.charAt(ndx)) break
+        return value1.substring(0, ndx)
+    }
+
+    static class TestSelector extends ValueSelector<Object, String> {
+
+        Map<String, String> map
+
+        boolean caseSensitive
+
+        int parallelThreshold = Integer.MAX_VALUE
+
+        ValueSelector.MatchMode defaultMode = ValueSelector.MatchMode.PATTERN
+
+        boolean fullList = true
+
+        TestSelector(Map<String, String> map, boolean caseSensitive) {
+            this.map = map
+            this.caseSensitive = caseSensitive
+        }
+
+        String getTitle() { 'Test' }
+
+        Map<String, String> loadValueMap() { new TreeMap<String, String>(map) }
+
+        String getDefault() { '' }
+
+        boolean isCaseSensitive() { caseSensitive }
+
+        int getParallelThreshold() { parallelThreshold }
+
+        ValueSelector.MatchMode getDefaultMatchMode() { defaultMode }
+
+        boolean showFullList() { fullList }
+
+        Closure<int[]> index
+
+        protected int[] getCandidates(Map<String, String> values, List<String> texts) {
+            index == null ? null : index(values, texts)
+        }
+    }
+
+    static class CachedSelector extends TestSelector {
+
+        static int loads
+
+        CachedSelector(Map<String, String> map) {
+            super(map, false)
+        }
+
+        Map<String, String> loadValueMap() {
+            loads++
+            super.loadValueMap()
+        }
+
+        boolean isCached() { true }
+
+        static boolean current = true
+
+        protected boolean isCacheCurrent(Map<String, String> cached) { current }
+    }
+
+    static class StreamingSelector extends TestSelector {
+
+        StreamingSelector(Map<String, String> map) {
+            super(map, false)
+        }
+
+        CountDownLatch shown = new CountDownLatch(1)
+
+        Map<String, String> streamValueMap(ValueSelector.ValueStream<String> stream) {
+            // The second batch comes just before the load finishes, too late to be shown
+            stream.add(map.findAll { it.key.startsWith('V') && !it.key.contains('Dialog') })
+            shown.await(5, TimeUnit.SECONDS)
+            stream.add(map.findAll { !it.key.startsWith('V') || it.key.contains('Dialog') })
+            loadValueMap()
+        }
+
+        boolean isCached() { true }
+    }
+
+}